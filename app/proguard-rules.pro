@@ -55,6 +55,16 @@
 -keepclassmembernames class *$* { *; }
 -keepclassmembernames public class *$* { *; }
 
+# Generated template accessors are found through this class
+-keep public class e.s.miniweb.core.template.TemplateModelRegistry {
+    public static void RegisterAll(java.util.Map);
+}
+
+# Generated view renderers are found through this class
+-keep public class e.s.miniweb.core.template.ViewRendererRegistry {
+    public static void RegisterAll(java.util.Map);
+}
+
 # keep all annotations
 -keepattributes *Annotation*
 
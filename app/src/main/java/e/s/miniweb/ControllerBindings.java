@@ -11,6 +11,10 @@ import e.s.miniweb.core.ControllerBinding;
  * <p>
  * You MUST add each controller class here, or it
  * will not be available in the app.
+ * <p>
+ * Controllers are bound by name, and only created when one of their
+ * urls is first used. This keeps app start-up fast, however many
+ * controllers there are.
  */
 public class ControllerBindings {
 
@@ -18,11 +22,12 @@ public class ControllerBindings {
      * Add bindings for each of the app's controllers.
      * <p>
      * You MUST add a line below once for each controller in the app.
+     * The name must match the one the controller binds its methods with.
      */
     public static void BindAllControllers(){
-        ControllerBinding.Use(new Home());
-        ControllerBinding.Use(new TestController());
-        ControllerBinding.Use(new ExamplesController());
+        ControllerBinding.BindController("home", Home::new);
+        ControllerBinding.BindController("test", TestController::new);
+        ControllerBinding.BindController("examples", ExamplesController::new);
     }
 
 }
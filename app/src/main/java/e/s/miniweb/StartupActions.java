@@ -26,8 +26,7 @@ public class StartupActions {
 
         // Demo of a way to do 'late loading' of user account.
         // Feel free to modify or remove for your app.
-        Permissions.ClearPermissions();
-        Permissions.AddPermission("no-permissions-loaded");
+        Permissions.SetPermissions(new String[]{"no-permissions-loaded"});
     }
 
     /**
@@ -42,10 +41,9 @@ public class StartupActions {
 
         // Demo of a way to do 'late loading' of user account.
         // Feel free to modify or remove for your app.
-        Permissions.ClearPermissions();
-        Permissions.AddPermissions(new String[]{"perm1", "perm2"});
-        if (!controls.hotReloadCurrentPage()){
-            Log.w(TAG, "Failed to hot-reload");
+        Permissions.SetPermissions(new String[]{"perm1", "perm2"});
+        if (!controls.refreshPermissionBlocks()){
+            Log.w(TAG, "Failed to refresh permission blocks");
         }
     }
 }
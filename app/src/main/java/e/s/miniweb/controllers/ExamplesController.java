@@ -27,6 +27,7 @@ public class ExamplesController extends ControllerBase {
         // partials
         ControllerBinding.BindMethod(controller, "url-view", this::urlPartialView);
         ControllerBinding.BindMethod(controller, "element-view", this::urlPartialElementView);
+        ControllerBinding.BindMethod(controller, "needs-view", this::urlPartialNeedsView);
     }
 
     private TemplateResponse isPermitted(Map<String, String> params, WebResourceRequest request) {
@@ -42,6 +43,10 @@ public class ExamplesController extends ControllerBase {
         return Page("examples/element-view", params);
     }
 
+    private TemplateResponse urlPartialNeedsView(Map<String, String> params, WebResourceRequest request) {
+        return Page("examples/needs-view", null);
+    }
+
     private TemplateResponse urlPartialView(Map<String, String> params, WebResourceRequest request) {
         Object model = new Object() {
             public final String text = params.containsKey("text") ? params.get("text") : null;
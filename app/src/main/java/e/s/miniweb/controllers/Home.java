@@ -26,7 +26,8 @@ import e.s.miniweb.core.template.TemplateResponse;
 public class Home extends ControllerBase {
     /**
      * The constructor of your controller should bind all it's routes.
-     * The constructor should be called in ControllerBindings::BindAllControllers()
+     * The controller should be declared in ControllerBindings::BindAllControllers(),
+     * and is created when one of its routes is first used.
      */
     public Home() {
         String controller = "home";
@@ -4,6 +4,7 @@ import android.webkit.WebResourceRequest;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -12,6 +13,8 @@ import e.s.miniweb.core.ControllerBase;
 import e.s.miniweb.core.ControllerBinding;
 import e.s.miniweb.core.hotReload.EmulatorHostCall;
 import e.s.miniweb.core.hotReload.HotReloadMonitor;
+import e.s.miniweb.core.template.PageMetrics;
+import e.s.miniweb.core.template.TemplateCache;
 import e.s.miniweb.core.template.TemplateResponse;
 import e.s.miniweb.models.FullNameModel;
 @SuppressWarnings("unused")
@@ -30,7 +33,8 @@ import e.s.miniweb.models.FullNameModel;
 public class TestController extends ControllerBase {
     /**
      * The constructor of your controller should bind all it's routes.
-     * The constructor should be called in ControllerBindings::BindAllControllers()
+     * The controller should be declared in ControllerBindings::BindAllControllers(),
+     * and is created when one of its routes is first used.
      */
     public TestController() {
         String controller = "test";
@@ -50,8 +54,8 @@ public class TestController extends ControllerBase {
         ControllerBinding.BindMethod(controller, "increment", this::incrementPage);
         ControllerBinding.BindMethod(controller, "memInfo", this::memInfo);
 
-        // partials
-        ControllerBinding.BindMethod(controller, "badge-africa", this::badgeAfrica);
+        // partials. The badge only depends on its parameters, so is kept for a minute
+        ControllerBinding.BindCachedMethod(controller, "badge-africa", this::badgeAfrica, 60_000, 32);
     }
 
     private String lastName = "";
@@ -114,6 +118,12 @@ public class TestController extends ControllerBase {
             public final long usedMem = usedMemInMB;
             public final long maxHeapSize = maxHeapSizeInMB;
             public final long availHeapSize = availHeapSizeInMB;
+            public final long templateCacheHits = TemplateCache.Hits();
+            public final long templateCacheMisses = TemplateCache.Misses();
+            public final int templatesWarmedUp = TemplateCache.WarmedUp();
+            public final long templateWarmUpMs = TemplateCache.WarmUpMillis();
+            public final long totalIncludes = PageMetrics.TotalIncludes();
+            public final List<String> pageIncludes = PageMetrics.DescribeIncludes();
         };
         return Page("test/memInfo", model);
     }
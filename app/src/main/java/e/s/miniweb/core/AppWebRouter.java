@@ -10,8 +10,10 @@ import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
-import java.io.ByteArrayInputStream;
+import org.json.JSONObject;
+
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
 
@@ -21,6 +23,7 @@ import e.s.miniweb.core.hotReload.AssetLoader;
 import e.s.miniweb.core.hotReload.EmulatorHostCall;
 import e.s.miniweb.core.hotReload.HotReloadMonitor;
 import e.s.miniweb.core.template.InternalRequest;
+import e.s.miniweb.core.template.PageStream;
 import e.s.miniweb.core.template.TemplateEngine;
 import e.s.miniweb.core.template.TemplateResponse;
 import e.s.miniweb.core.template.WebMethod;
@@ -28,6 +31,43 @@ import e.s.miniweb.core.template.WebMethod;
 public class AppWebRouter extends WebViewClient {
     private static final String TAG = "AppWebRouter";
     private final String HtmlMime = "text/html";
+    private static final String HtmlFooter = "</body></html>";
+
+    /**
+     * Replaces marked regions of the page. Called with a list of region ids and their new mark-up.
+     * Returns false without changing anything if any region can't be found.
+     */
+    private static final String PatchRegionsScript = "(function(patches){"
+            + "var found={},i,range,walk=document.createTreeWalker(document.body,NodeFilter.SHOW_COMMENT,null,false);"
+            + "while(walk.nextNode())found[walk.currentNode.nodeValue]=walk.currentNode;"
+            + "for(i=0;i<patches.length;i+=2){if(!found['_needs:'+patches[i]]||!found['/_needs:'+patches[i]])return false;}"
+            + "for(i=0;i<patches.length;i+=2){"
+            + "range=document.createRange();"
+            + "range.setStartBefore(found['_needs:'+patches[i]]);range.setEndAfter(found['/_needs:'+patches[i]]);"
+            + "range.deleteContents();range.insertNode(range.createContextualFragment(patches[i+1]));}"
+            + "return true;})";
+
+    /** Matches the permission block markers in a page. Replacing with "$1" leaves the markers without their ids */
+    private static final String RegionMarkerIds = "(<!--/?_needs):[0-9]+(?=-->)";
+
+    /**
+     * Morphs the body of the page to match new mark-up. Nodes are matched by position.
+     * Nodes and attributes that are the same are not touched. The contents of text areas are left as they are.
+     */
+    private static final String MorphPageScript = "(function(html){"
+            + "function attrs(from,to){var i,a;"
+            + "for(i=from.attributes.length-1;i>=0;i--){a=from.attributes[i];if(!to.hasAttribute(a.name))from.removeAttribute(a.name);}"
+            + "for(i=0;i<to.attributes.length;i++){a=to.attributes[i];if(from.getAttribute(a.name)!==a.value)from.setAttribute(a.name,a.value);}}"
+            + "function morph(from,to){"
+            + "if(from.nodeType!==to.nodeType||from.nodeName!==to.nodeName){from.parentNode.replaceChild(to,from);return;}"
+            + "if(from.nodeType!==1){if(from.nodeValue!==to.nodeValue)from.nodeValue=to.nodeValue;return;}"
+            + "attrs(from,to);if(from.nodeName!=='TEXTAREA')children(from,to);}"
+            + "function children(from,to){var f=from.firstChild,t=to.firstChild,nf,nt;"
+            + "while(t){nt=t.nextSibling;if(f){nf=f.nextSibling;morph(f,t);f=nf;}else from.appendChild(t);t=nt;}"
+            + "while(f){nf=f.nextSibling;from.removeChild(f);f=nf;}}"
+            + "var doc=new DOMParser().parseFromString('<!doctype html><html><body>'+html+'</body></html>','text/html');"
+            + "children(document.body,doc.body);"
+            + "return true;})";
     private final TemplateEngine template;
     private final AssetLoader assets;
     private final MainActivity mainView;
@@ -45,6 +85,14 @@ public class AppWebRouter extends WebViewClient {
         ControllerBindings.BindAllControllers();
     }
 
+    /**
+     * Compile all the view templates ahead of their first use.
+     * This blocks until done, so call it off the ui thread.
+     */
+    public void WarmUpTemplates() {
+        template.WarmUp();
+    }
+
     /**
      * Core of the router. This provides app-generated data for a web request
      * rather than loading from a network request.
@@ -64,6 +112,11 @@ public class AppWebRouter extends WebViewClient {
             return super.shouldInterceptRequest(view, request);
         }
 
+        // is this a page being rendered in the background?
+        if (pageString.stream != null) {
+            return new WebResourceResponse(pageString.mimeType, "utf-8", pageString.stream);
+        }
+
         // is this a raw data result (i.e. from a file)
         if (pageString.rawData != null) {
             return new WebResourceResponse(pageString.mimeType, null, pageString.rawData);
@@ -73,7 +126,7 @@ public class AppWebRouter extends WebViewClient {
         if (pageString.data == null) return null;
 
         // Ok, looks like a string. Encode and output
-        InputStream data = new ByteArrayInputStream(pageString.data.getBytes());
+        InputStream data = PageStream.ofPage(pageString.data);
         return new WebResourceResponse(pageString.mimeType, "utf-8", data);
     }
 
@@ -166,10 +219,15 @@ public class AppWebRouter extends WebViewClient {
                 return pageResult;
 
             } else if (Objects.equals(scheme, "app")) { // controller pages
-                pageResult.data = getControllerResponse(request, false); // Run the controller & template engine
                 pageResult.mimeType = HtmlMime;
                 pageResult.hotReloadCandidate = true;
 
+                // Stream the page if we can, so the web view can start on it before the render is done
+                pageResult.stream = streamControllerResponse(request);
+                if (pageResult.stream != null) return pageResult;
+
+                pageResult.data = getControllerResponse(request); // Run the controller & template engine
+
                 if (request.getClass() != InternalRequest.class) EmulatorHostCall.pushLastPage(pageResult.data);
 
                 return pageResult;
@@ -207,19 +265,16 @@ public class AppWebRouter extends WebViewClient {
     /**
      * Render a page through a controller method
      */
-    public String getControllerResponse(WebResourceRequest request, boolean isPartialView) throws Exception {
+    public String getControllerResponse(WebResourceRequest request) throws Exception {
         String pageString;
         Uri url = request.getUrl();
         String controller = url.getHost();
-        String method = url.getPath();
-        if (method == null) method = "";
-        if (method.startsWith("/")) method = method.substring(1);
-        if (method.isEmpty()) method = "index";
-        String params = url.getQuery();
+        String method = getMethodName(url);
+        String params = url.getEncodedQuery();
 
         // Check for 'expect hot reload' here
         String response = null;
-        if (Objects.equals(controller, hotController) && method.equals(hotMethod) && Objects.equals(params, hotParams)) {
+        if (isHotReload(controller, method, params)) {
             // This is a hot reload. Don't actually run the template.
             Log.i(TAG, "Hot-reloading: " + url);
             response = HotReloadMonitor.RunHotReload(template);
@@ -228,16 +283,14 @@ public class AppWebRouter extends WebViewClient {
         // Either a normal call, or hot reload failed.
         if (response == null) {
             // Call the controller for a page render
-            response = runTemplate(controller, method, params, request, isPartialView);
+            response = runTemplate(controller, method, params, null, request, false);
         }
 
-        if (!isPartialView) ClearHotLoad();
+        ClearHotLoad();
 
         if (response == null) {// Output an error page
             pageString = errorPage(App.str(R.string.msg_err_404), controller, method);
-        } else if (isPartialView) { // should not add document wrappers
-            pageString = response;
-        } else if (response.startsWith("<!doctype html>") || response.startsWith("<html")) { // already has document wrappers
+        } else if (PageStream.isDocument(response)) { // already has document wrappers
             pageString = response;
         } else {
             // We got a body fragment. Wrap the response in a default document and deliver
@@ -247,52 +300,264 @@ public class AppWebRouter extends WebViewClient {
         return pageString;
     }
 
-    /** This is where we call down to TemplateEngine for cold-calls */
-    private String runTemplate(String controller, String method, String params, WebResourceRequest request, boolean isPartialView) throws Exception {
-        String key = ControllerBinding.makeKey(controller, method);
+    /**
+     * Render a partial view by calling its controller method directly, with parameters that are already split.
+     * The output has no document wrappers, and the page is not kept for hot-reload.
+     */
+    public String getPartialResponse(String controller, String method, Map<String, String> params, WebResourceRequest request) throws Exception {
+        String response = runTemplate(controller, method, null, params, request, true);
+
+        if (response == null) return errorPage(App.str(R.string.msg_err_404), controller, method);
+        return response;
+    }
+
+    /**
+     * Render a page through a controller method, streaming it to the web view while it renders.
+     * Returns null if the page should not be streamed, in which case use `getControllerResponse`.
+     * Hot-reloads, error pages, and pages for the emulator host are never streamed.
+     */
+    private PageStream streamControllerResponse(WebResourceRequest request) throws Exception {
+        if (HotReloadMonitor.TryLoadFromHost) return null; // whole page is pushed to the host after rendering
+
+        Uri url = request.getUrl();
+        String controller = url.getHost();
+        String method = getMethodName(url);
+        String params = url.getEncodedQuery();
+
+        if (isHotReload(controller, method, params)) return null;
+
+        // Anything that would give an error page is left to the normal render
+        Route route = ControllerBinding.FindRoute(controller, method);
+        if (route == null || route.Handler == null || !route.isPermitted()) return null;
+        if (route.Cache != null) return null; // rendered as a string, so it can be cached
+
+        Map<String, String> paramMap = TemplateEngine.MapParams(params);
+        route.addCaptures(method, paramMap);
+
+        PageStream output = PageStream.forRender(htmlHeader(), HtmlFooter);
+
+        // Run the controller. The render carries on in the background
+        TemplateResponse tmpl = template.RunStreamed(route.Handler, paramMap, request, output);
+        ClearHotLoad();
+
+        if (tmpl.ResponseBody != null) { // redirect page, already rendered
+            String page = tmpl.ResponseBody;
+            tmpl.ResponseBody = null;
+            saveHotReloadData(tmpl, controller, method, params, page, false);
+            if (!PageStream.isDocument(page)) page = wrapPageStringWithHtmlHeaders(page);
+            return PageStream.ofPage(page);
+        }
+
+        saveHotReloadData(tmpl, controller, method, params, null, false);
+        return output;
+    }
+
+    /** Method name from a controller url. Defaults to 'index' */
+    private static String getMethodName(Uri url) {
+        String method = url.getPath();
+        if (method == null) method = "";
+        if (method.startsWith("/")) method = method.substring(1);
+        if (method.isEmpty()) method = "index";
+        return method;
+    }
+
+    /** True if this request is a refresh of the page we are expecting to hot-reload */
+    private boolean isHotReload(String controller, String method, String params) {
+        return Objects.equals(controller, hotController) && method.equals(hotMethod) && Objects.equals(params, hotParams);
+    }
+
+    /**
+     * This is where we call down to TemplateEngine for cold-calls.
+     * Parameters are read from `paramMap` if given, otherwise from the `params` query string.
+     */
+    private String runTemplate(String controller, String method, String params, Map<String, String> paramMap, WebResourceRequest request, boolean isPartialView) throws Exception {
+        Route route = ControllerBinding.FindRoute(controller, method);
 
         // Check the url is valid
-        if (!ControllerBinding.hasMethod(key)) {
+        if (route == null) {
             HotReloadMonitor.ClearReload();
             Log.e(TAG, "Unknown web method! Controller="+controller+"; Method="+method);
             return null;
         }
 
         // Check permissions
-        if (!ControllerBinding.isPermitted(key)) {
+        if (!route.isPermitted()) {
             // permissions check failed. Bail out with an error
             HotReloadMonitor.ClearReload();
             Log.e(TAG, "Permission check failed! Controller="+controller+"; Method="+method);
             return template.internalTemplate("not-permitted", null);
         }
 
-        WebMethod controllerAction = ControllerBinding.getMethod(key);
+        WebMethod controllerAction = route.Handler;
 
         if (controllerAction == null) {
             Log.e(TAG, "Invalid web method -- no 'WebMethod' bound! Controller="+controller+"; Method="+method);
             return null;
         }
 
+        // Values from the url path, like `{id}`, are passed with the other parameters
+        if (route.HasCaptures) {
+            if (paramMap == null) paramMap = TemplateEngine.MapParams(params);
+            route.addCaptures(method, paramMap);
+        }
+
+        // Serve from the method's cache if we can. Not used during development, so template changes show up.
+        ResponseCache cache = HotReloadMonitor.TryLoadFromHost ? null : route.Cache;
+        String cacheKey = null;
+        if (cache != null) {
+            if (paramMap == null) paramMap = TemplateEngine.MapParams(params);
+            cacheKey = ResponseCache.keyFor(route.Key, paramMap);
+
+            ResponseCache.Cached cached = cache.get(cacheKey);
+            if (cached != null) {
+                saveHotReloadData(cached.response(), controller, method, params, cached.Output, isPartialView);
+                return cached.Output;
+            }
+        }
+
         // We have enough permission. Run the method and fill in the template
-        TemplateResponse tmpl = template.Run(controllerAction, params, request);
+        TemplateResponse tmpl = paramMap == null
+                ? template.Run(controllerAction, params, request)
+                : template.Run(controllerAction, paramMap, request);
 
         // extract response
         String finalOutput = tmpl.ResponseBody;
         tmpl.ResponseBody = null;
 
-        // save hot-reload data
+        // Redirects have no template path. These are never cached.
+        if (cacheKey != null && tmpl.TemplatePath != null) cache.put(cacheKey, finalOutput, tmpl);
+
+        saveHotReloadData(tmpl, controller, method, params, finalOutput, isPartialView);
+
+        return finalOutput;
+    }
+
+    private static void saveHotReloadData(TemplateResponse tmpl, String controller, String method, String params, String body, boolean isPartialView) {
         HotReloadMonitor.AddHotReloadPage(tmpl);
         if (!isPartialView) {
+            tmpl.Controller = controller;
+            tmpl.Method = method;
+            tmpl.Params = params;
+            tmpl.LastRenderedBody = body;
             HotReloadMonitor.lastPageRendered = tmpl;
-            HotReloadMonitor.lastPageRendered.Controller = controller;
-            HotReloadMonitor.lastPageRendered.Method = method;
-            HotReloadMonitor.lastPageRendered.Params = params;
         }
+    }
 
-        return finalOutput;
+    /**
+     * Render the current page again without calling its controller, and build a script that morphs
+     * the page in the web view to match. Only the nodes that differ are changed, so the document,
+     * its resources, scroll position and form inputs are kept.
+     * <p>
+     * Returns null if the page should be reloaded in full instead: if it is a whole document,
+     * or if a script has changed. Returns an empty string if the page has not changed.
+     */
+    public String HotReloadPatchScript() {
+        TemplateResponse page = HotReloadMonitor.lastPageRendered;
+        if (page == null) return null;
+
+        String previous = page.LastRenderedBody;
+        String body = HotReloadMonitor.RunHotReload(template);
+        if (body == null || PageStream.isDocument(body)) return null;
+        EmulatorHostCall.pushLastPage(wrapPageStringWithHtmlHeaders(body));
+
+        if (previous == null) { // streamed page. We can't tell what changed
+            if (indexOfScript(body, 0) >= 0) return null;
+        } else {
+            if (previous.equals(body)) return ""; // no change
+
+            // Find the part that changed. Scripts are not run again by the morph, so reload if they change.
+            // Permission block markers get new ids on each render, so they are not counted as changes.
+            String before = previous.replaceAll(RegionMarkerIds, "$1");
+            String after = body.replaceAll(RegionMarkerIds, "$1");
+            int max = Math.min(before.length(), after.length());
+            int prefix = 0;
+            while (prefix < max && before.charAt(prefix) == after.charAt(prefix)) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) suffix++;
+
+            if (changesScript(before, prefix, before.length() - suffix)
+                    || changesScript(after, prefix, after.length() - suffix)) return null;
+        }
+
+        return MorphPageScript + "(" + JSONObject.quote(body) + ");";
+    }
+
+    /** True if the range of mark-up is inside, or contains, a script */
+    private static boolean changesScript(String html, int start, int end) {
+        int open = html.lastIndexOf('<', start);
+        while (open >= 0 && !isScriptTag(html, open)) open = html.lastIndexOf('<', open - 1);
+        if (open >= 0 && html.indexOf("</", open) < start) open = -1; // script closed before the range
+        if (open >= 0) return true;
+
+        int inside = indexOfScript(html, start);
+        return inside >= 0 && inside < end;
+    }
+
+    /** Position of the next script tag at or after `start`, or -1 */
+    private static int indexOfScript(String html, int start) {
+        int open = html.indexOf('<', start);
+        while (open >= 0 && !isScriptTag(html, open)) open = html.indexOf('<', open + 1);
+        return open;
+    }
+
+    private static boolean isScriptTag(String html, int position) {
+        return html.regionMatches(true, position, "<script", 0, 7);
+    }
+
+    /**
+     * Render again the permission gated parts of the current page, without calling its controller,
+     * and build a script that patches them into the web view.
+     * Returns null if the page can't be patched, and should be reloaded instead.
+     * Returns an empty string if nothing on the page has changed.
+     */
+    public String PermissionPatchScript() {
+        TemplateResponse page = HotReloadMonitor.lastPageRendered;
+        if (page == null) return null;
+
+        Map<Integer, String> patches;
+        try {
+            patches = template.RenderPermissionChanges(page);
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to render permission changes: " + ex);
+            return null;
+        }
+        if (patches == null) return null;
+        if (patches.isEmpty()) return "";
+
+        // Keep the page markup in step with the web view, for hot-reload
+        String body = page.LastRenderedBody;
+        if (body != null) {
+            for (Map.Entry<Integer, String> patch : patches.entrySet()) {
+                String open = "<!--_needs:" + patch.getKey() + "-->";
+                String close = "<!--/_needs:" + patch.getKey() + "-->";
+                int left = body.indexOf(open);
+                int right = body.indexOf(close);
+                if (left < 0 || right < left) {
+                    body = null;
+                    break;
+                }
+                body = body.substring(0, left) + patch.getValue() + body.substring(right + close.length());
+            }
+            page.LastRenderedBody = body;
+        }
+
+        StringBuilder sb = new StringBuilder(PatchRegionsScript);
+        sb.append("([");
+        for (Map.Entry<Integer, String> patch : patches.entrySet()) {
+            if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+            sb.append(patch.getKey()).append(',').append(JSONObject.quote(patch.getValue()));
+        }
+        sb.append("]);");
+        return sb.toString();
     }
 
     private String wrapPageStringWithHtmlHeaders(String response) {
+        return htmlHeader() + response + HtmlFooter;
+    }
+
+    /** Start of a default document, up to and including the opening body tag */
+    private String htmlHeader() {
         StringBuilder sb = new StringBuilder();
 
         sb.append("<!doctype html><html><head><meta charset=\"UTF-8\">"); // document with header and char set.
@@ -304,7 +569,7 @@ public class AppWebRouter extends WebViewClient {
         // Add specific dark or light mode styles
         sb.append("<link rel=\"stylesheet\" href=\"asset://");
         sb.append(App.str(R.string.path_styles));
-        if (mainView.inDarkMode()){
+        if (mainView != null && mainView.inDarkMode()){ // no activity when rendering off-screen
             sb.append("default-dark.css");
         } else {
             sb.append("default-light.css");
@@ -312,8 +577,6 @@ public class AppWebRouter extends WebViewClient {
         sb.append("\" type=\"text/css\">");
 
         sb.append("</head><body>");
-        sb.append(response);
-        sb.append("</body></html>");
 
         return sb.toString();
     }
@@ -376,6 +639,7 @@ public class AppWebRouter extends WebViewClient {
         public String data;
         public String mimeType;
         public InputStream rawData;
+        public PageStream stream; // UTF-8 page, rendered in the background
         public boolean hotReloadCandidate;
     }
 }
\ No newline at end of file
@@ -2,8 +2,11 @@ package e.s.miniweb.core;
 
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,19 +22,17 @@ public class ControllerBinding {
      * <p>
      *  This binding has no permissions requirement, and will be available regardless
      *  of session permissions.
+     * <p>
+     *  Parts of the method name in braces, like "{id}/lines", match any one part of the url path.
+     *  The values are passed to the method as parameters, so "app://orders/1234/lines" gives `id=1234`.
+     *  Fixed parts are matched first, so "new/lines" would be used before "{id}/lines".
      *
      * @param controllerName name of the controller class that contains the method
      * @param methodName name of the method, as exposed in the url
      * @param methodFunc the `WebMethod` function that runs for requests to the url
      */
     public static void BindMethod(String controllerName, String methodName, WebMethod methodFunc) {
-        String composite = makeKey(controllerName, methodName);
-        if (responders.containsKey(composite)){
-            Log.w(TAG, "Reused method, Ignored. c="+controllerName+"; m="+methodName);
-            return;
-        }
-
-        responders.put(composite, methodFunc);
+        bind(controllerName, methodName, methodFunc, null, null);
     }
 
     /**
@@ -49,26 +50,103 @@ public class ControllerBinding {
      * @param permissionSet a comma-separated list of permissions. User will require one or more of these.
      */
     public static void BindMethod(String controllerName, String methodName, WebMethod methodFunc, String permissionSet) {
-        String composite = makeKey(controllerName, methodName);
-        if (responders.containsKey(composite)){
-            Log.w(TAG, "Reused method, Ignored. c="+controllerName+"; m="+methodName);
-            return;
+        bind(controllerName, methodName, methodFunc, permissionSet, null);
+    }
+
+    /**
+     *  Bind a method name to a controller function, and keep its rendered output for a time.
+     *  This makes it available on url "app://{controllerName}/{methodName}"
+     * <p>
+     *  Only use this for methods that give the same page for the same parameters, such as lookups.
+     *  Calls with the same parameters and session permissions are served from the cache
+     *  without running the method. Redirects are never cached.
+     *  Use `InvalidateCache` when the data behind the page changes.
+     *
+     * @param controllerName name of the controller class that contains the method
+     * @param methodName name of the method, as exposed in the url
+     * @param methodFunc the `WebMethod` function that runs for requests to the url
+     * @param timeToLiveMs how long a rendered page is kept, in milliseconds
+     * @param maxEntries most pages kept for this method. The least recently used are dropped first.
+     */
+    public static void BindCachedMethod(String controllerName, String methodName, WebMethod methodFunc, long timeToLiveMs, int maxEntries) {
+        BindCachedMethod(controllerName, methodName, methodFunc, null, timeToLiveMs, maxEntries);
+    }
+
+    /**
+     *  Bind a method name to a controller function, and keep its rendered output for a time.
+     *  This is the same as `BindCachedMethod` without permissions, but will only be available
+     *  in sessions that have AT LEAST ONE of the listed permissions.
+     *
+     * @param controllerName name of the controller class that contains the method
+     * @param methodName name of the method, as exposed in the url
+     * @param methodFunc the `WebMethod` function that runs for requests to the url
+     * @param permissionSet a comma-separated list of permissions. User will require one or more of these.
+     * @param timeToLiveMs how long a rendered page is kept, in milliseconds
+     * @param maxEntries most pages kept for this method. The least recently used are dropped first.
+     */
+    public static void BindCachedMethod(String controllerName, String methodName, WebMethod methodFunc, String permissionSet, long timeToLiveMs, int maxEntries) {
+        ResponseCache cache = null;
+        if (timeToLiveMs <= 0 || maxEntries <= 0) {
+            Log.w(TAG, "Cache settings are empty, method will not be cached. c="+controllerName+"; m="+methodName);
+        } else {
+            cache = new ResponseCache(timeToLiveMs, maxEntries);
         }
 
-        if (permissionSet != null) {
-            String[] perms = permissionSet.trim().split("\\s*,\\s*"); // comma separated, trimming whitespace
-            if (perms.length > 0){
-                permissions.put(composite, perms);
-            }
+        bind(controllerName, methodName, methodFunc, permissionSet, cache);
+    }
+
+    /**
+     * Remove all cached pages for a controller.
+     * Call this when the data behind its pages has changed.
+     */
+    public static void InvalidateCache(String controllerName) {
+        InvalidateCacheByPrefix(controllerName + GLUE);
+    }
+
+    /**
+     * Remove cached pages whose cache key starts with the prefix.
+     * Keys start with `makeKey(controller, method)`, followed by '?' and the call parameters.
+     */
+    public static void InvalidateCacheByPrefix(String keyPrefix) {
+        if (keyPrefix == null) return;
+        for (ResponseCache cache : routes.caches) {
+            cache.removeByPrefix(keyPrefix);
         }
+    }
 
-        responders.put(composite, methodFunc);
+    /**
+     *  Declare a controller that is only created when it is first needed.
+     *  The first request to any url "app://{controllerName}/..." calls the factory,
+     *  and the controller it makes is kept like one passed to `Use`.
+     * <p>
+     *  The controller must bind its methods under the same controller name in its constructor.
+     *  Until then, none of its methods or permissions are known.
+     * <p>
+     *  Each controller is created at most once. Requests to other controllers are not held up
+     *  while it is created. If the factory throws, the error is logged and it is not called again,
+     *  so the controller's urls are not found until the app is restarted.
+     *
+     * @param controllerName name of the controller, as exposed in the url
+     * @param factory makes the controller, usually a constructor reference like `Home::new`
+     */
+    public static void BindController(String controllerName, ControllerFactory factory) {
+        synchronized (lock) {
+            if (declared.containsKey(controllerName)) {
+                Log.w(TAG, "Reused controller, Ignored. c="+controllerName);
+                return;
+            }
+            Map<String, DeclaredController> updated = new HashMap<>(declared);
+            updated.put(controllerName, new DeclaredController(controllerName, factory));
+            declared = Collections.unmodifiableMap(updated);
+        }
     }
 
     /** Reference a controller. The controller should call `BindMethod` in its constructor */
     public static void Use(Object o) {
         // just keep a reference for the gc
-        controllers.add(o);
+        synchronized (lock) {
+            controllers.add(o);
+        }
     }
 
     // TODO: move these to a core superclass
@@ -79,35 +157,147 @@ public class ControllerBinding {
         return controllerName + GLUE + methodName;
     }
 
-    // composite name => call-back; Composite is controller | method
-    private static final Map<String, WebMethod> responders = new HashMap<>();
-    private static final Map<String, String[]> permissions = new HashMap<>();
+    /**
+     * All bound methods, with their permissions and caches.
+     * This is never changed once published. Binding a method publishes a new copy, so
+     * lookups on the request path don't lock, and always see a complete set of bindings.
+     */
+    private static final class Routes {
+        /** controller name => method names of the controller, split at '/'. Nodes are shared between tables */
+        final Map<String, Route.Node> byController;
+        /** Output caches of all cached methods */
+        final List<ResponseCache> caches;
+
+        Routes(Map<String, Route.Node> byController, List<ResponseCache> caches) {
+            this.byController = Collections.unmodifiableMap(byController);
+            this.caches = caches; // only ever replaced, so tables can share it
+        }
+    }
+
+    private static volatile Routes routes = new Routes(new HashMap<String, Route.Node>(), new ArrayList<ResponseCache>());
+
+    /** Held while publishing new bindings, so that two binds can't lose each other's changes */
+    private static final Object lock = new Object();
 
     @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
     private static final Set<Object> controllers = new HashSet<>();
 
-    public static void ClearBindings() {
-        responders.clear();
-        controllers.clear();
-        permissions.clear();
-    }
+    /** Controllers from `BindController`, by name. Never changed once published, like `routes` */
+    private static volatile Map<String, DeclaredController> declared = Collections.emptyMap();
+
+    /** A controller from `BindController`, which is created on the first request for one of its urls */
+    private static final class DeclaredController {
+        final String name;
+        final ControllerFactory factory;
+        /** True once the factory has been called, whether or not it worked */
+        private volatile boolean done;
 
-    public static boolean isPermitted(String compositeKey){
-        if (!permissions.containsKey(compositeKey)) return true; // no restrictions
-        String[] set = permissions.get(compositeKey);
-        if (set == null) {
-            Log.e(TAG, "Permissions for '"+compositeKey+"' were included, but set was null");
-            return false; // something went wrong. Deny permission just in case
+        DeclaredController(String name, ControllerFactory factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+
+        /**
+         * Create the controller, if that has not been tried yet.
+         * Only requests for this controller wait while it is created. Its methods are
+         * bound from its constructor, which takes the bind lock for each one.
+         */
+        void create() {
+            if (done) return;
+            synchronized (this) {
+                if (done) return;
+                try {
+                    Object controller = factory.create();
+                    synchronized (lock) {
+                        controllers.add(controller);
+                    }
+                    Log.i(TAG, "Created controller on first use. c="+name);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Failed to create controller. Its urls will not be found until the app restarts. c="+name+"; error="+ex);
+                } finally {
+                    done = true;
+                }
+            }
         }
-        return Permissions.HasAnyPermissions(set);
     }
 
-    public static boolean hasMethod(String compositeKey) {
-        return responders.containsKey(compositeKey);
+    /**
+     * Find the route for a controller url, or null if there is none.
+     * If the controller is only declared, it is created first.
+     * Routes that are already bound, and unknown controllers, are found without locking.
+     * Creating a controller only holds up requests for that controller.
+     *
+     * @param controllerName host of the url
+     * @param path path of the url, with or without the leading '/'. An empty path is the 'index' method.
+     */
+    static Route FindRoute(String controllerName, String path) {
+        if (controllerName == null) return null;
+        if (path == null) path = "";
+
+        Route found = find(routes, controllerName, path);
+        if (found != null) return found;
+
+        DeclaredController controller = declared.get(controllerName);
+        if (controller == null || controller.done) return null;
+
+        controller.create();
+        return find(routes, controllerName, path);
+    }
+
+    private static Route find(Routes current, String controllerName, String path) {
+        Route.Node methods = current.byController.get(controllerName);
+        return methods == null ? null : methods.find(path);
+    }
+
+    private static void bind(String controllerName, String methodName, WebMethod methodFunc, String permissionSet, ResponseCache cache) {
+        PermissionMask permissions = null;
+        if (permissionSet != null) {
+            String[] perms = permissionSet.trim().split("\\s*,\\s*"); // comma separated, trimming whitespace
+            if (perms.length > 0){
+                permissions = Permissions.CompileMask(perms);
+            }
+        }
+        Route route = new Route(controllerName, methodName, methodFunc, permissions, cache);
+
+        synchronized (lock) {
+            Routes current = routes;
+            Route.Node methods = current.byController.get(controllerName);
+            if (methods == null) methods = Route.Node.EMPTY;
+
+            // Only this controller's nodes on the new method's path are copied. The rest are shared.
+            Route.Node updated = methods.with(route);
+            if (updated == null) {
+                Route existing = methods.find(methodName);
+                if (existing != null && existing.Method.equals(methodName)) {
+                    Log.w(TAG, "Reused method, Ignored. c="+controllerName+"; m="+methodName);
+                } else {
+                    Log.w(TAG, "Method matches the same urls as another, Ignored. c="+controllerName+"; m="+methodName);
+                }
+                return;
+            }
+
+            Map<String, Route.Node> byController = new HashMap<>(current.byController);
+            byController.put(controllerName, updated);
+            List<ResponseCache> caches = current.caches;
+            if (cache != null) {
+                caches = new ArrayList<>(caches);
+                caches.add(cache);
+            }
+
+            routes = new Routes(byController, caches);
+        }
     }
 
-    public static WebMethod getMethod(String compositeKey) {
-        return responders.get(compositeKey);
+    public static void ClearBindings() {
+        Routes old;
+        synchronized (lock) {
+            old = routes;
+            routes = new Routes(new HashMap<String, Route.Node>(), new ArrayList<ResponseCache>());
+            controllers.clear();
+            declared = Collections.emptyMap();
+        }
+        for (ResponseCache cache : old.caches) cache.clear();
     }
+
     //endregion
 }
@@ -0,0 +1,13 @@
+package e.s.miniweb.core;
+
+/**
+ * Creates a controller when one of its routes is first requested.
+ * The controller should bind its methods in its constructor, as usual.
+ * Usually a constructor reference, like `Home::new`.
+ *
+ * @see ControllerBinding#BindController(String, ControllerFactory)
+ */
+@FunctionalInterface
+public interface ControllerFactory {
+    Object create();
+}
@@ -77,6 +77,10 @@ public class MainActivity extends Activity implements RouterControls {
             getOnBackInvokedDispatcher().registerOnBackInvokedCallback(OnBackInvokedDispatcher.PRIORITY_DEFAULT, backHandler);
         }
 
+        // Compile all the views in the background, so navigation is fast. This waits for the hot-reload
+        // check, as hot-loaded views are read from the host. On a warm start, the compiled views are still cached.
+        if (!isWarmReload) warmUpPending = true;
+
         if (!isWarmReload) StartupActions.beforeHomepage();
 
         // Activate the web-view with event handlers, and kick off the landing page.
@@ -299,6 +303,8 @@ public class MainActivity extends Activity implements RouterControls {
 
     /** if true, we will check for emulator host, and stop running if not found */
     public boolean doFirstEmuHostCheck = true;
+    /** if true, view templates will be compiled once we know if hot-reload is running */
+    private boolean warmUpPending = false;
     /** Background task that checks for changes to assets used by the current page
      * DO NOT call this directly. Use `hotReloadHandler.post(HotReloadAssetChecker);`
      * to run in the correct thread. */
@@ -314,10 +320,12 @@ public class MainActivity extends Activity implements RouterControls {
                 if (EmulatorHostCall.hostIsAvailable()){
                     Log.i(TAG, "Hot-reload service connected!");
                     HotReloadMonitor.TryLoadFromHost = true;
+                    warmUpPending = false; // views are read from the host, so nothing to warm up
                     backgroundHandler.postDelayed(HotReloadAssetChecker, hotReloadInterval); // tick again
                 } else {
                     Log.i(TAG, "Hot-reload service not found. Deactivating");
                     HotReloadMonitor.TryLoadFromHost = false;
+                    warmUpTemplates();
                     return; // DO NOT continue pumping `hotReloadHandler`
                 }
             }
@@ -332,7 +340,7 @@ public class MainActivity extends Activity implements RouterControls {
                     return;
                 }
 
-                boolean doReload = false;
+                String changedPath = null;
                 
                 // For each asset that was requested by the current page (including the page itself)
                 for (String tmplPath : tmplPaths) {
@@ -342,13 +350,17 @@ public class MainActivity extends Activity implements RouterControls {
 
                     // If the date has changed, we should reload the *page* (not just the asset)
                     if (HotReloadMonitor.HasAssetChanged(tmplPath, modifiedDate)) {
-                        doReload = true;
+                        changedPath = tmplPath;
                         break;
                     }
                 }
 
-                if (doReload) {
-                    doHotReload();
+                if (changedPath != null) {
+                    if (changedPath.startsWith(App.str(R.string.path_views))) {
+                        doPatchedHotReload(); // view templates can be patched into the page
+                    } else {
+                        doHotReload(); // styles, images, etc. are only loaded with the page
+                    }
                 }
             } catch (Exception ex){
                 Log.w(TAG, "error in emulator host loop: "+ex);
@@ -376,6 +388,42 @@ public class MainActivity extends Activity implements RouterControls {
         });
     }
 
+    /**
+     * Reload the current view from existing data, patching the changes into the page.
+     * This keeps the document, scroll position and form inputs.
+     * If the page can't be patched, does a full `doHotReload` instead.
+     * This renders the page, so should not be called on the ui thread.
+     */
+    private void doPatchedHotReload() {
+        final String script;
+        try {
+            script = webRouter.HotReloadPatchScript();
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to render page for hot-reload: " + ex);
+            doHotReload();
+            return;
+        }
+        if (script == null) { // page can't be patched
+            doHotReload();
+            return;
+        }
+        if (script.isEmpty()) return; // nothing changed
+
+        runOnUiThread(() -> webView.evaluateJavascript(script, result -> {
+            if (!"true".equals(result)) {
+                Log.w(TAG, "Failed to patch page for hot-reload. Reloading page.");
+                doHotReload();
+            }
+        }));
+    }
+
+    /** Compile all the view templates, if that is still to do. Call this on the background thread, after the hot-reload check */
+    private void warmUpTemplates() {
+        if (!warmUpPending) return;
+        warmUpPending = false;
+        webRouter.WarmUpTemplates();
+    }
+
     void startHotReloadRepeater() {
         Log.i(TAG, "Starting hot-reload looper");
         doFirstEmuHostCheck = true;
@@ -421,7 +469,24 @@ public class MainActivity extends Activity implements RouterControls {
     @Override
     public boolean hotReloadCurrentPage() {
         if (!HotReloadMonitor.CanReload()) return false;
-        doHotReload();
+
+        // Patching renders the page, so keep that off the caller's thread
+        if (backgroundHandler == null || !backgroundHandler.post(this::doPatchedHotReload)) doHotReload();
+        return true;
+    }
+
+    @Override
+    public boolean refreshPermissionBlocks() {
+        String script = webRouter.PermissionPatchScript();
+        if (script == null) return hotReloadCurrentPage(); // page can't be patched
+        if (script.isEmpty()) return true; // nothing changed
+
+        runOnUiThread(() -> webView.evaluateJavascript(script, result -> {
+            if (!"true".equals(result)) { // page has changed since it was rendered
+                Log.w(TAG, "Failed to patch permission blocks. Reloading page.");
+                doHotReload();
+            }
+        }));
         return true;
     }
 
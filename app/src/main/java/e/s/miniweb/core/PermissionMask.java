@@ -0,0 +1,16 @@
+package e.s.miniweb.core;
+
+/**
+ * A set of permissions compiled to bits, so that checking a session is a few AND operations.
+ * <p>
+ * Build these once, when routes are bound or templates are compiled, with `Permissions.CompileMask`.
+ * Then check with `Permissions.HasAnyPermissions(mask)`.
+ */
+public final class PermissionMask {
+    /** One bit per permission id. See `Permissions.CompileMask` */
+    final long[] bits;
+
+    PermissionMask(long[] bits) {
+        this.bits = bits;
+    }
+}
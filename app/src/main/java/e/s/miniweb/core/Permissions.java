@@ -1,8 +1,10 @@
 package e.s.miniweb.core;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Holder for current user permissions
@@ -19,10 +21,35 @@ import java.util.Set;
  * Note that permissions should be quite fine-grained to work
  * well with view and control access. You might want to get
  * coarser 'roles' from log-in, and expand to permissions here.
+ * <p>
+ * Permissions can be changed from any thread. Each change publishes a new
+ * set, so checks never lock and never see a half-updated set.
+ * <p>
+ * Each permission name is given a small number the first time it is seen.
+ * Route and template requirements are compiled to a `PermissionMask` of these,
+ * and the session holds the same bits, so a check is a few AND operations.
  */
 @SuppressWarnings("unused")
 public class Permissions {
-    private static final Set<String> permissions = new HashSet<>();
+    /** The permissions of the session. This is never changed once published. Changes replace it as a whole. */
+    private static final class Session {
+        final Set<String> names;
+        final long[] bits;
+        final long version;
+
+        Session(Set<String> names, long version) {
+            this.names = Collections.unmodifiableSet(names);
+            this.bits = toBits(names);
+            this.version = version;
+        }
+    }
+
+    private static volatile Session session = new Session(new HashSet<String>(), 0);
+    private static final Object lock = new Object();
+
+    // permission name => bit number. Names are never removed, so bits never change meaning.
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static int nextId = 0;
 
     /**
      * Remove all permissions from current session.
@@ -34,7 +61,24 @@ public class Permissions {
      * will still be accessible after this call.
      */
     public static void ClearPermissions(){
-        permissions.clear();
+        synchronized (lock) {
+            publish(new HashSet<String>());
+        }
+    }
+
+    /**
+     * Replace all permissions in the current session with a new set.
+     * This is the same as `ClearPermissions` then `AddPermissions`, but other threads
+     * never see the session with no permissions in between.
+     * @param permissionSet the permissions the session should have. Null gives no permissions.
+     */
+    public static void SetPermissions(String[] permissionSet){
+        Set<String> next = new HashSet<>();
+        if (permissionSet != null) next.addAll(Arrays.asList(permissionSet));
+
+        synchronized (lock) {
+            publish(next);
+        }
     }
 
     /**
@@ -44,7 +88,12 @@ public class Permissions {
      */
     public static void AddPermission(String permission){
         if (permission == null || permission.isEmpty()) return;
-        permissions.add(permission);
+        synchronized (lock) {
+            if (session.names.contains(permission)) return;
+            Set<String> next = new HashSet<>(session.names);
+            next.add(permission);
+            publish(next);
+        }
     }
 
     /**
@@ -54,7 +103,11 @@ public class Permissions {
      */
     public static void AddPermissions(String[] permissionSet){
         if (permissionSet == null) return;
-        permissions.addAll(Arrays.asList(permissionSet));
+        synchronized (lock) {
+            Set<String> next = new HashSet<>(session.names);
+            next.addAll(Arrays.asList(permissionSet));
+            publish(next);
+        }
     }
 
     /**
@@ -66,7 +119,7 @@ public class Permissions {
      */
     public static boolean HasPermission(String permission){
         if (permission == null) return false;
-        return permissions.contains(permission);
+        return session.names.contains(permission);
     }
 
     /**
@@ -78,9 +131,84 @@ public class Permissions {
      */
     public static boolean HasAnyPermissions(String[] permissionSet){
         if (permissionSet == null) return true;
+        Set<String> current = session.names;
         for (String perm: permissionSet){
-            if (permissions.contains(perm)) return true;
+            if (current.contains(perm)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return true if ANY of the permissions in the mask are granted.
+     * This is the same as `HasAnyPermissions` with the names the mask was compiled from.
+     * If the mask is null, this returns true (no permission required)
+     * @param mask permissions to check, from `CompileMask`
+     * @return true if any granted
+     */
+    public static boolean HasAnyPermissions(PermissionMask mask){
+        if (mask == null) return true;
+        long[] granted = session.bits;
+        int count = Math.min(granted.length, mask.bits.length);
+        for (int i = 0; i < count; i++){
+            if ((granted[i] & mask.bits[i]) != 0) return true;
         }
         return false;
     }
+
+    /**
+     * Compile a set of permission names into a mask, for repeated checks with `HasAnyPermissions`.
+     * An empty set gives a mask that no session matches.
+     * @param permissionSet permission names
+     * @return mask of the permissions, or null if the set was null
+     */
+    public static PermissionMask CompileMask(String[] permissionSet){
+        if (permissionSet == null) return null;
+        return new PermissionMask(toBits(Arrays.asList(permissionSet)));
+    }
+
+    /**
+     * Returns a number that changes every time the session permissions change.
+     * Use this to key anything that depends on the session permissions, such as cached pages.
+     * @return permission version
+     */
+    public static long Version(){
+        return session.version;
+    }
+
+    /**
+     * Replace the session. Must be called holding `lock`.
+     * If the permissions are the same as the current ones, the session and its version are kept,
+     * so nothing keyed on `Version()` is thrown away.
+     */
+    private static void publish(Set<String> names){
+        Session current = session;
+        if (current.names.equals(names)) return;
+        session = new Session(names, current.version + 1);
+    }
+
+    private static long[] toBits(Iterable<String> names){
+        long[] bits = new long[0];
+        for (String name : names){
+            if (name == null) continue;
+            int id = idOf(name);
+            if ((id >> 6) >= bits.length) bits = Arrays.copyOf(bits, (id >> 6) + 1);
+            bits[id >> 6] |= 1L << (id & 63);
+        }
+        return bits;
+    }
+
+    /** Bit number for a permission name, giving it the next free one if it is new */
+    private static int idOf(String name){
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        synchronized (ids) {
+            id = ids.get(name);
+            if (id == null) {
+                id = nextId++;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
 }
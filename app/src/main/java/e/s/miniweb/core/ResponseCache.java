@@ -0,0 +1,133 @@
+package e.s.miniweb.core;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import e.s.miniweb.core.template.PageRegions;
+import e.s.miniweb.core.template.QueryParams;
+import e.s.miniweb.core.template.TemplateResponse;
+
+/**
+ * Rendered output for a cacheable route, keyed by the call parameters and the session permissions.
+ * <p>
+ * Entries expire a fixed time after they are rendered. If the cache is full,
+ * the least recently used entry is dropped.
+ * <p>
+ * Entries are never changed once stored, so a hit can be used by any number of pages at once.
+ *
+ * @see ControllerBinding#BindCachedMethod(String, String, e.s.miniweb.core.template.WebMethod, long, int)
+ */
+final class ResponseCache {
+    private final long timeToLive;
+    private final LinkedHashMap<String, Cached> entries;
+
+    /** A cached render, and what is needed to make a response for it */
+    static final class Cached {
+        final String Output;
+        private final String templatePath;
+        private final Object model;
+        private final boolean shouldClearHistory;
+        /** Permission blocks in the output. These are only read when patching, so pages can share them */
+        private final PageRegions regions;
+        private final long expires;
+
+        private Cached(String output, TemplateResponse response, long expires) {
+            Output = output;
+            templatePath = response.TemplatePath;
+            model = response.Model;
+            shouldClearHistory = response.ShouldClearHistory;
+            regions = response.Regions;
+            this.expires = expires;
+        }
+
+        /**
+         * A new response for the cached output, for the hot-reload and permission patch systems.
+         * These change the response after it is served, so each hit needs its own.
+         */
+        TemplateResponse response() {
+            TemplateResponse response = new TemplateResponse();
+            response.TemplatePath = templatePath;
+            response.Model = model;
+            response.ShouldClearHistory = shouldClearHistory;
+            response.Regions = regions;
+            return response;
+        }
+    }
+
+    ResponseCache(long timeToLiveMs, final int maxEntries) {
+        timeToLive = timeToLiveMs;
+        entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache key for a call to a route.
+     * Parameters are sorted by name, so their order in the url does not matter.
+     * Repeated parameters are all included, in the order they were given.
+     */
+    static String keyFor(String compositeKey, Map<String, String> params) {
+        List<String> names = new ArrayList<>(params.keySet());
+        Collections.sort(names);
+
+        // Lengths and counts are included so that values containing separators can't collide
+        StringBuilder sb = new StringBuilder(compositeKey);
+        sb.append('?');
+        for (String name : names) {
+            List<String> values = QueryParams.GetAll(params, name);
+            sb.append(name.length()).append(':').append(name);
+            sb.append(values.size()).append('*');
+            for (String value : values) {
+                value = String.valueOf(value);
+                sb.append(value.length()).append(':').append(value);
+            }
+        }
+        sb.append('#');
+        sb.append(Permissions.Version());
+        return sb.toString();
+    }
+
+    /** Get a cached render, or null if there is none or it has expired */
+    Cached get(String key) {
+        synchronized (entries) {
+            Cached found = entries.get(key);
+            if (found == null) return null;
+            if (found.expires > SystemClock.elapsedRealtime()) return found;
+
+            entries.remove(key);
+            return null;
+        }
+    }
+
+    /** Store a render. Only the parts needed for later hits are taken from the response */
+    void put(String key, String output, TemplateResponse response) {
+        synchronized (entries) {
+            entries.put(key, new Cached(output, response, SystemClock.elapsedRealtime() + timeToLive));
+        }
+    }
+
+    /** Remove all entries whose key starts with the prefix */
+    void removeByPrefix(String prefix) {
+        synchronized (entries) {
+            Iterator<String> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) keys.remove();
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package e.s.miniweb.core;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import e.s.miniweb.core.template.WebMethod;
+
+/**
+ * A bound controller method, with everything needed to serve it.
+ * <p>
+ * Routes are found with `ControllerBinding.FindRoute`, which walks the path of the url
+ * once and returns the route without building any strings.
+ * <p>
+ * A method name can have parts in braces, like `{id}/lines`. These match any one part of
+ * the url path, so `app://orders/1234/lines` would give the method a parameter `id=1234`.
+ */
+final class Route {
+    /** Marks a path part that matches any value */
+    private static final char CAPTURE_OPEN = '{';
+    private static final char CAPTURE_CLOSE = '}';
+    /** Method used for a url with no path */
+    static final String DEFAULT_METHOD = "index";
+
+    final String Controller;
+    /** Method name as bound, including any `{name}` parts */
+    final String Method;
+    /** `ControllerBinding.makeKey` of the controller and method. Used for cache keys */
+    final String Key;
+    final WebMethod Handler;
+    /** Session needs at least one of these. Null if the route is open to all sessions */
+    final PermissionMask Required;
+    /** Output cache for the method, or null if it is not cached */
+    final ResponseCache Cache;
+    /** True if the method name has any `{name}` parts */
+    final boolean HasCaptures;
+
+    /** Method name split at '/' */
+    private final String[] parts;
+
+    Route(String controller, String method, WebMethod handler, PermissionMask permissions, ResponseCache cache) {
+        Controller = controller;
+        Method = method;
+        Key = ControllerBinding.makeKey(controller, method);
+        Handler = handler;
+        Required = permissions;
+        Cache = cache;
+
+        parts = method.split("/", -1);
+        boolean captures = false;
+        for (String part : parts) captures |= isCapture(part);
+        HasCaptures = captures;
+    }
+
+    /** True if the current session can use this route */
+    boolean isPermitted() {
+        return Required == null || Permissions.HasAnyPermissions(Required);
+    }
+
+    /**
+     * Add the values of the `{name}` parts of the method name to a parameter map.
+     * The path must be one that `FindRoute` matched to this route.
+     * These replace any query parameters with the same names.
+     */
+    void addCaptures(String path, Map<String, String> params) {
+        if (!HasCaptures) return;
+
+        int left = startOf(path);
+        if (left == path.length()) { // matched as the default method
+            path = DEFAULT_METHOD;
+            left = 0;
+        }
+        for (String part : parts) {
+            int right = path.indexOf('/', left);
+            if (right < 0) right = path.length();
+            if (isCapture(part)) params.put(part.substring(1, part.length() - 1), path.substring(left, right));
+            left = right + 1;
+        }
+    }
+
+    /** True if a part of a method name is a `{name}` capture */
+    static boolean isCapture(String part) {
+        return part.length() > 2 && part.charAt(0) == CAPTURE_OPEN && part.charAt(part.length() - 1) == CAPTURE_CLOSE;
+    }
+
+    /** Offset of the method name in a url path, skipping the leading '/' if there is one */
+    static int startOf(String path) {
+        return (!path.isEmpty() && path.charAt(0) == '/') ? 1 : 0;
+    }
+
+    /**
+     * One part of the method names of a controller.
+     * Nodes are never changed once made. Binding a method copies the nodes on its path,
+     * and shares all the others with the previous table.
+     */
+    static final class Node {
+        /** A controller with no methods */
+        static final Node EMPTY = new Node(new String[0], new Node[0], null, null);
+
+        /** Names of the fixed parts that can come next, and the node for each */
+        private final String[] names;
+        private final Node[] children;
+        /** Node for a `{name}` part, or null */
+        private final Node capture;
+        /** Route for a path that ends at this node, or null */
+        private final Route route;
+
+        private Node(String[] names, Node[] children, Node capture, Route route) {
+            this.names = names;
+            this.children = children;
+            this.capture = capture;
+            this.route = route;
+        }
+
+        /**
+         * A copy of this node with a route added, or null if a route with the same shape is already here.
+         * Only the nodes on the route's path are copied. This node is not changed.
+         */
+        Node with(Route added) {
+            return with(added, 0);
+        }
+
+        private Node with(Route added, int index) {
+            if (index == added.parts.length) {
+                if (route != null) return null;
+                return new Node(names, children, capture, added);
+            }
+
+            String part = added.parts[index];
+            if (isCapture(part)) {
+                Node next = (capture == null ? EMPTY : capture).with(added, index + 1);
+                if (next == null) return null;
+                return new Node(names, children, next, route);
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                if (!names[i].equals(part)) continue;
+                Node next = children[i].with(added, index + 1);
+                if (next == null) return null;
+                Node[] newChildren = children.clone();
+                newChildren[i] = next;
+                return new Node(names, newChildren, capture, route);
+            }
+
+            Node next = EMPTY.with(added, index + 1);
+            int count = names.length;
+            String[] newNames = Arrays.copyOf(names, count + 1);
+            Node[] newChildren = Arrays.copyOf(children, count + 1);
+            newNames[count] = part;
+            newChildren[count] = next;
+            return new Node(newNames, newChildren, capture, route);
+        }
+
+        /** Find the route for a url path, or null if there is none. Fixed parts are tried before captures */
+        Route find(String path) {
+            int left = startOf(path);
+            if (left == path.length()) return find(DEFAULT_METHOD, 0);
+            return find(path, left);
+        }
+
+        private Route find(String path, int left) {
+            int right = path.indexOf('/', left);
+            if (right < 0) right = path.length();
+            int length = right - left;
+
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (name.length() == length && path.regionMatches(left, name, 0, length)) {
+                    Route found = children[i].next(path, right);
+                    if (found != null) return found;
+                    break;
+                }
+            }
+
+            if (capture != null && length > 0) return capture.next(path, right);
+            return null;
+        }
+
+        /** Carry on matching after a part that ended at `right` */
+        private Route next(String path, int right) {
+            if (right == path.length()) return route;
+            return find(path, right + 1);
+        }
+    }
+}
@@ -26,6 +26,9 @@ public interface RouterControls {
      * This will NOT cause the controller action to be re-run,
      * but will re-run templating (so permission block visibility can change)
      * <p>
+     * Changes are patched into the page where possible, keeping scroll position and form inputs.
+     * Otherwise the page is reloaded. The page is rendered in the background, so this can be called from any thread.
+     * <p>
      * If a hot reload is not possible, the page will NOT refresh.
      * <p>
      * Returns 'true' if a hot reload was possible.
@@ -33,6 +36,19 @@ public interface RouterControls {
      */
     boolean hotReloadCurrentPage();
 
+    /**
+     * Updates the permission gated parts of the page the user is currently on,
+     * after a change to the session permissions.
+     * Only the `&lt;_needs>` blocks whose output changes are rendered again, and they are
+     * patched into the page without reloading it. The controller action is NOT re-run.
+     * <p>
+     * If the page can't be patched, it will be hot reloaded instead (see `hotReloadCurrentPage`)
+     * <p>
+     * Returns 'true' if the page was patched or reloaded, or did not need to change.
+     * Returns 'false' if the page did not refresh
+     */
+    boolean refreshPermissionBlocks();
+
     /**
      * Does a 'cold reload' of the page the user is currently on.
      * This WILL cause the controller action to be re-run,
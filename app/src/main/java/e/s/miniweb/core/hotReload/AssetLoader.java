@@ -37,4 +37,9 @@ public class AssetLoader {
         // If the file didn't load, or hot-loading is off, load from APK
         return apkLoader.open(path);
     }
+
+    /** List the names of files and folders in an APK assets folder. This never reads from the emulator host */
+    public String[] list(String path) throws IOException {
+        return apkLoader.list(path);
+    }
 }
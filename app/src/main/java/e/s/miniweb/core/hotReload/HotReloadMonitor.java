@@ -2,13 +2,16 @@ package e.s.miniweb.core.hotReload;
 
 import android.util.Log;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
 import e.s.miniweb.R;
 import e.s.miniweb.core.App;
+import e.s.miniweb.core.template.TemplateCache;
 import e.s.miniweb.core.template.TemplateEngine;
 import e.s.miniweb.core.template.TemplateResponse;
 
@@ -16,14 +19,17 @@ public class HotReloadMonitor {
     private static final String TAG = "HotReloadMonitor";
 
     // These must all be static to enable warm-reload
-    private static final Map<String, TemplateResponse> hotReloadAssets = new HashMap<>();
-    public static TemplateResponse lastPageRendered = null;
-    public static boolean TryLoadFromHost = false; // part of the hot-load system.
+    // Pages render on background threads while the monitor reads, so the asset list is never changed
+    // once published. Changes are made to a copy, which then replaces it.
+    private static volatile Map<String, TemplateResponse> hotReloadAssets = Collections.emptyMap();
+    private static final Object lock = new Object();
+    public static volatile TemplateResponse lastPageRendered = null;
+    public static volatile boolean TryLoadFromHost = false; // part of the hot-load system.
 
     //region Hot-reload
     /** If true, the last rendered page is available for hot-reload */
     public static Set<String> GetHotReloadPaths() {
-        return hotReloadAssets.keySet();
+        return new HashSet<>(hotReloadAssets.keySet());
     }
 
 
@@ -38,9 +44,7 @@ public class HotReloadMonitor {
             Log.w(TAG, "AddHotReloadAsset was given an empty path");
             return;
         }
-        if (hotReloadAssets.containsKey(path)) return;
-
-        hotReloadAssets.put(path, new TemplateResponse());
+        addAsset(path, new TemplateResponse());
     }
 
     /** Add the path of an template page to the list of paths that should trigger a hot-reload */
@@ -53,14 +57,23 @@ public class HotReloadMonitor {
         String key = App.str(R.string.path_views) + tmpl.TemplatePath + ".html";
         // see also: e.s.miniweb.core.template.TemplateEngine#getDocTemplate
 
-        if (hotReloadAssets.containsKey(key)) return;
+        addAsset(key, tmpl);
+    }
+
+    private static void addAsset(String path, TemplateResponse tmpl) {
+        synchronized (lock) {
+            if (hotReloadAssets.containsKey(path)) return;
 
-        hotReloadAssets.put(key, tmpl);
+            Map<String, TemplateResponse> next = new HashMap<>(hotReloadAssets);
+            next.put(path, tmpl);
+            hotReloadAssets = Collections.unmodifiableMap(next);
+        }
     }
 
     /** If true, the last rendered page is available for hot-reload */
     public static boolean HasAssetChanged(String filePath, String changeDate) {
-        if (!hotReloadAssets.containsKey(filePath)) {
+        Map<String, TemplateResponse> assets = hotReloadAssets;
+        if (!assets.containsKey(filePath)) {
             Log.w(TAG, "Unexpected hot reload query: "+filePath);
             return false; // not a path we recognise
         }
@@ -68,7 +81,7 @@ public class HotReloadMonitor {
             return false; // probably lost connection to emulator host
         }
 
-        TemplateResponse target = hotReloadAssets.get(filePath);
+        TemplateResponse target = assets.get(filePath);
         if (target == null){Log.e(TAG, "Null reference in hot reload query: "+filePath);return false;}
 
 
@@ -79,6 +92,7 @@ public class HotReloadMonitor {
         if (target.LastPageChangeDate.equals(changeDate)) return false; // file not changed
 
         target.LastPageChangeDate = changeDate; // update the date for next time
+        TemplateCache.Invalidate(filePath); // make sure the new version gets read
         return true; // yes, this asset has changed
     }
 
@@ -96,15 +110,23 @@ public class HotReloadMonitor {
 
     /** Clear any previous hot-reload state */
     public static void ClearReload(){
-        hotReloadAssets.clear();
+        synchronized (lock) {
+            hotReloadAssets = Collections.emptyMap();
+        }
         lastPageRendered = null;
+
+        // Files can be edited on the host while we are not watching them,
+        // so compiled templates are not kept between pages while hot-loading.
+        if (TryLoadFromHost) TemplateCache.Clear();
     }
 
     /** Just do the render phase of `Run` */
     public static String RunHotReload(TemplateEngine template) {
         try {
-            template.copyLinesToTemplate(App.str(R.string.path_views) + lastPageRendered.TemplatePath + ".html", lastPageRendered);
-            return template.transformTemplate(lastPageRendered, null);
+            TemplateResponse page = lastPageRendered;
+            String body = template.transformTemplate(page, null);
+            page.LastRenderedBody = body;
+            return body;
         } catch (Exception ex){
             Log.e(TAG, "Hot reload failed: "+ex);
             return null; // will cause a normal load
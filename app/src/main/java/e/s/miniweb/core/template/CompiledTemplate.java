@@ -0,0 +1,33 @@
+package e.s.miniweb.core.template;
+
+import java.util.List;
+
+/**
+ * A view template that has been read and parsed once,
+ * ready to be rendered against any number of models.
+ * <p>
+ * Instances are shared between renders through the `TemplateCache`,
+ * so they must not be changed after they are built.
+ */
+public class CompiledTemplate {
+    /** Asset path the template was loaded from */
+    public final String Path;
+
+    /** Template lowered to a flat instruction list. '{{ }}' holes are value lookups in the program */
+    final TemplateProgram Program;
+
+    private CompiledTemplate(String path, TemplateProgram program) {
+        Path = path;
+        Program = program;
+    }
+
+    /** Build a compiled template from the lines of a template file */
+    public static CompiledTemplate compile(String path, List<String> lines) {
+        return new CompiledTemplate(path, TemplateCompiler.compile(HTree.parseLines(lines)));
+    }
+
+    /** Build a compiled template from a tree that was parsed at build time */
+    static CompiledTemplate compile(String path, HTree tree) {
+        return new CompiledTemplate(path, TemplateCompiler.compile(tree));
+    }
+}
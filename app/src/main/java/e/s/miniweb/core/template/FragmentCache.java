@@ -0,0 +1,59 @@
+package e.s.miniweb.core.template;
+
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered output of `&lt;_cache>` blocks, keyed by block and model values.
+ * <p>
+ * Entries expire after the block's time-to-live. If the cache is full,
+ * the least recently used entry is dropped.
+ */
+final class FragmentCache {
+    /** Most fragments kept, across all templates */
+    private static final int MAX_FRAGMENTS = 64;
+
+    private static final LinkedHashMap<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+            return size() > MAX_FRAGMENTS;
+        }
+    };
+
+    /** Output of a cached block, and the render state it left behind */
+    static final class Fragment {
+        final String Output;
+        /** 'else' state after the block, so a following `&lt;_else>` works the same on a hit */
+        final boolean LastBlockWasHidden;
+        /** Number of sub-views rendered in the block */
+        final int Includes;
+        private final long expires;
+
+        Fragment(String output, boolean lastBlockWasHidden, int includes, long timeToLiveMs) {
+            Output = output;
+            LastBlockWasHidden = lastBlockWasHidden;
+            Includes = includes;
+            expires = SystemClock.elapsedRealtime() + timeToLiveMs;
+        }
+    }
+
+    /** Get a fragment, or null if there is none or it has expired */
+    static Fragment get(String key) {
+        synchronized (fragments) {
+            Fragment found = fragments.get(key);
+            if (found == null) return null;
+            if (found.expires > SystemClock.elapsedRealtime()) return found;
+
+            fragments.remove(key);
+            return null;
+        }
+    }
+
+    static void put(String key, Fragment fragment) {
+        synchronized (fragments) {
+            fragments.put(key, fragment);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package e.s.miniweb.core.template;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parsed HTML fragment, stored as parallel arrays indexed by node number.
+ * <p>
+ * This is the same liberal parse as `HNode`, but without an object per node.
+ * Node zero is the root. Children are a linked list through `firstChild` and `nextSibling`.
+ * Ranges are over `Src`, with the same meaning as the fields of `HNode`.
+ * <p>
+ * The parser keeps its own stack, so markup can be nested to any depth.
+ * <p>
+ * This has no Android dependencies, as it is also run at build time. See `ViewArchive`
+ */
+final class HTree {
+    /** Value of `firstChild` and `nextSibling` where there is no node */
+    static final int NONE = -1;
+    /** String.indexOf() value for not found */
+    private static final int NOT_FOUND = -1;
+
+    /** Reference to original input string */
+    final String Src;
+
+    /** Number of nodes, including the root */
+    int count;
+
+    /** Parser type of each node. One of the `HNode.TYPE_...` values */
+    int[] type;
+    /** start of outer HTML */
+    int[] srcStart;
+    /** start of inner HTML */
+    int[] contStart;
+    /** end of inner HTML */
+    int[] contEnd;
+    /** end of outer HTML */
+    int[] srcEnd;
+    int[] firstChild;
+    int[] nextSibling;
+
+    /** Last child of each node. Only used while parsing */
+    private int[] lastChild;
+
+    private HTree(String src) {
+        Src = src;
+        int size = Math.max(16, src.length() / 16);
+        type = new int[size];
+        srcStart = new int[size];
+        contStart = new int[size];
+        contEnd = new int[size];
+        srcEnd = new int[size];
+        firstChild = new int[size];
+        nextSibling = new int[size];
+        lastChild = new int[size];
+    }
+
+    /** A tree read back from a `ViewArchive` */
+    HTree(String src, int count, int[] type, int[] srcStart, int[] contStart, int[] contEnd, int[] srcEnd, int[] firstChild, int[] nextSibling) {
+        Src = src;
+        this.count = count;
+        this.type = type;
+        this.srcStart = srcStart;
+        this.contStart = contStart;
+        this.contEnd = contEnd;
+        this.srcEnd = srcEnd;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+    }
+
+    /** Parse the lines of a template file. Each line is ended with CRLF, whatever the file used */
+    static HTree parseLines(List<String> lines) {
+        StringBuilder src = new StringBuilder();
+        for (String line : lines) {
+            src.append(line);
+            src.append("\r\n");
+        }
+        return parse(src.toString());
+    }
+
+    /** Parse a HTML fragment to a node table */
+    static HTree parse(String src) {
+        HTree tree = new HTree(src);
+        int root = tree.add(NONE, 0, 0, 0, 0, HNode.TYPE_ROOT);
+
+        tree.parseFrom(root);
+        tree.contStart[root] = tree.srcStart[root] = 0;
+        tree.contEnd[root] = tree.srcEnd[root] = src.length() - 1;
+        tree.lastChild = null;
+
+        return tree;
+    }
+
+    /** true if the element tag name starts with '_' */
+    boolean isUnderscored(int node) {
+        return type[node] == HNode.TYPE_NODE && Src.charAt(srcStart[node] + 1) == '_';
+    }
+
+    /** true if the node has no child nodes */
+    boolean isLeaf(int node) {
+        return firstChild[node] == NONE;
+    }
+
+    /** Get the text contained by a node, or empty string */
+    String innerText(int node) {
+        try {
+            StringBuilder out = new StringBuilder();
+            int[] stack = new int[8];
+            int depth = 0;
+
+            int next = firstChild[node];
+            while (true) {
+                if (next == NONE) {
+                    if (depth == 0) break;
+
+                    // Closing tag of the container we are leaving
+                    int parent = stack[--depth];
+                    if (contEnd[parent] < srcEnd[parent]) out.append(Src, contEnd[parent] + 1, srcEnd[parent] + 1);
+                    next = nextSibling[parent];
+                    continue;
+                }
+
+                if (firstChild[next] == NONE) {
+                    // not a container. Slap in contents
+                    out.append(Src, srcStart[next], srcEnd[next] + 1);
+                    next = nextSibling[next];
+                    continue;
+                }
+
+                // Opening tag, then the children
+                if (srcStart[next] < contStart[next]) out.append(Src, srcStart[next], contStart[next]);
+                if (depth >= stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = next;
+                next = firstChild[next];
+            }
+            return out.toString();
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+
+    //region internals
+
+    /**
+     * Read the source into nodes, starting with the content of `root`.
+     * Each open element is kept on a stack until its closing tag (or the end of the source) is found.
+     */
+    @SuppressWarnings("UnnecessaryContinue")
+    private void parseFrom(int root) {
+        String src = Src;
+        int lastIndex = src.length() - 1;
+        int[] stack = new int[16];
+        int depth = 0;
+
+        int target = root;
+        int left = 0;
+        contStart[target] = left;
+        while (true) {
+            int ended; // offset where `target` ended
+            scan:
+            {
+                while (left <= lastIndex) {
+                    int leftAngle = src.indexOf('<', left);
+                    int more = lastIndex - leftAngle;
+
+                    if (leftAngle == NOT_FOUND) {
+                        // no more markup in the source.
+                        // if left..end is not empty, add a text node and finish
+                        leftAngle = lastIndex;
+                        if (leftAngle > left) {
+                            textChild(target, left, lastIndex);
+                        }
+                        ended = leftAngle; // finish because EOF
+                        break scan;
+                    } else if (leftAngle >= lastIndex) {
+                        // sanity check: got a '<' as the last character
+                        textChild(target, left, lastIndex);
+                        ended = lastIndex; // finish because it's broken.
+                        break scan;
+                    } else {
+                        // we have the start of an element <...>
+                        int rightAngle = src.indexOf('>', left);
+
+                        // sanity checks
+                        if (rightAngle == NOT_FOUND || more < 1 || rightAngle == left + 1) { // `<`...EOF (x2)   or  `<>`
+                            // invalid markup? Consider the rest as text and bail out
+                            textChild(target, left, lastIndex);
+                            ended = lastIndex + 1; // finish because it's broken.
+                            break scan;
+                        }
+                        if (src.charAt(leftAngle + 1) == '/') { //   </...
+                            // If there is any content up to this point, add it as a 'text' child
+                            if (leftAngle > left) {
+                                textChild(target, left, leftAngle - 1);
+                            }
+
+                            // end of our own tag
+                            srcEnd[target] = rightAngle;
+                            contEnd[target] = leftAngle - 1;
+                            if (contEnd[target] == 0) contEnd[target] = -1;
+                            // TODO: unwind until we get to a matching tag, to handle bad markup.
+                            ended = rightAngle + 1; // finish because it's the end of this tag.
+                            break scan;
+                        } else if (src.charAt(leftAngle + 1) == '!') { // <!...
+                            if (more > 2 && src.charAt(leftAngle + 2) == '-' && src.charAt(leftAngle + 3) == '-') {
+                                // `<!-- ... -->`
+                                left = otherBlock(target, left, "-->") + 1;
+                            } else { // `<!...>`
+                                add(target, left, rightAngle, rightAngle, rightAngle, HNode.TYPE_DIRK);
+                                left = rightAngle + 1;
+                            }
+                            continue;
+                        } else if (src.charAt(leftAngle + 1) == '?') { // <? ... ?>
+                            // this is an XML directive.
+                            add(target, left, rightAngle, rightAngle, rightAngle, HNode.TYPE_DIRK);
+                            left = rightAngle + 1;
+                            continue;
+                        } else { // a child tag
+                            // check for 'empty' element
+                            if (src.charAt(rightAngle - 1) == '/') { // goes like <elem ... />
+                                add(target, left, rightAngle + 1, rightAngle + 1, rightAngle, HNode.TYPE_ELEM);
+                                left = rightAngle + 1;
+                                continue;
+                            } else if (src.startsWith("<script", leftAngle)) {
+                                left = otherBlock(target, left, "</script>") + 1;
+                                continue;
+                            } else {
+                                // This looks like a real node. Read into it
+
+                                // If there is any content up to this point, add it as a 'text' child
+                                if (leftAngle > left) {
+                                    textChild(target, left, leftAngle - 1);
+                                }
+
+                                // Start the child node, and read its contents
+                                int node = add(target, leftAngle, rightAngle + 1, 0, 0, HNode.TYPE_NODE);
+                                if (depth >= stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                                stack[depth++] = target;
+                                target = node;
+                                left = rightAngle + 1;
+                            }
+                        }
+                    }
+                }
+                ended = left;
+            }
+
+            if (depth == 0) return; // end of the root
+
+            // Back to the containing node
+            target = stack[--depth];
+            left = ended;
+        }
+    }
+
+    private int otherBlock(int target, int left, String terminator) {
+        int right = Src.indexOf(terminator, left);
+        if (right == NOT_FOUND) right = Src.length();
+        else right += terminator.length();
+        add(target, left, right, right, right, HNode.TYPE_SKIT);
+        return right;
+    }
+
+    private void textChild(int target, int left, int right) {
+        add(target, left, left, right, right, HNode.TYPE_TEXT);
+    }
+
+    /** Add a node as the last child of `parent`. Returns the new node number */
+    private int add(int parent, int srcStart, int contStart, int contEnd, int srcEnd, int type) {
+        if (count >= this.type.length) grow();
+
+        int node = count++;
+        this.type[node] = type;
+        this.srcStart[node] = srcStart;
+        this.contStart[node] = contStart;
+        this.contEnd[node] = contEnd;
+        this.srcEnd[node] = srcEnd;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        lastChild[node] = NONE;
+
+        if (parent != NONE) {
+            if (lastChild[parent] == NONE) firstChild[parent] = node;
+            else nextSibling[lastChild[parent]] = node;
+            lastChild[parent] = node;
+        }
+        return node;
+    }
+
+    private void grow() {
+        int size = type.length * 2;
+        type = Arrays.copyOf(type, size);
+        srcStart = Arrays.copyOf(srcStart, size);
+        contStart = Arrays.copyOf(contStart, size);
+        contEnd = Arrays.copyOf(contEnd, size);
+        srcEnd = Arrays.copyOf(srcEnd, size);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        lastChild = Arrays.copyOf(lastChild, size);
+    }
+
+    //endregion
+}
@@ -6,17 +6,29 @@ import android.webkit.WebResourceRequest;
 import java.util.Map;
 
 public class InternalRequest implements WebResourceRequest {
-    private final Uri target;
-
-    public InternalRequest(Uri target){
-        this.target = target;
+    private Uri target;
+    private final String url;
+    private final Object model;
+
+    /**
+     * Request for a sub-view that is dispatched directly to its controller.
+     * The url is only parsed if the controller asks for it.
+     */
+    public InternalRequest(String url, Object model){
+        this.target = null;
+        this.url = url;
+        this.model = model;
     }
 
     @Override
     public Uri getUrl() {
+        if (target == null && url != null) target = Uri.parse(url);
         return target;
     }
 
+    /** Model object given to the `<_view>` block, or null. Its public fields are also in the parameters. */
+    public Object getModel() {return model;}
+
     @Override
     public boolean isForMainFrame() {return false;}
 
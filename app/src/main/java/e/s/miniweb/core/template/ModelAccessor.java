@@ -0,0 +1,19 @@
+package e.s.miniweb.core.template;
+
+/**
+ * Reads the public fields of one model class without reflection.
+ * Implementations are generated for classes marked with `@TemplateModel`.
+ */
+public interface ModelAccessor {
+    /** Returned by `read` when the model has no public field with the given name */
+    Object MISSING = new Object();
+
+    /** The model class this accessor reads */
+    Class<?> modelClass();
+
+    /** Names of all public fields on the model */
+    String[] fieldNames();
+
+    /** Read a public field from the model by name, or return `MISSING` */
+    Object read(Object model, String name);
+}
@@ -0,0 +1,45 @@
+package e.s.miniweb.core.template;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds generated `ModelAccessor`s for model classes.
+ * <p>
+ * The template processor writes a `TemplateModelRegistry` class listing every
+ * accessor it generated. This is loaded once. If it does not exist, all models
+ * are read by reflection.
+ */
+final class ModelAccessors {
+    private static final String TAG = "ModelAccessors";
+    private static final String REGISTRY = "e.s.miniweb.core.template.TemplateModelRegistry";
+
+    /** Not changed after loading, so can be read from any thread */
+    private static final Map<Class<?>, ModelAccessor> accessors = load();
+
+    /** Get the generated accessor for exactly this class, or null if there is none */
+    static ModelAccessor forClass(Class<?> cls) {
+        return accessors.get(cls);
+    }
+
+    /** Number of generated accessors. The first call loads the registry */
+    static int count() {
+        return accessors.size();
+    }
+
+    private static Map<Class<?>, ModelAccessor> load() {
+        Map<Class<?>, ModelAccessor> found = new HashMap<>();
+        try {
+            Class<?> registry = Class.forName(REGISTRY);
+            registry.getMethod("RegisterAll", Map.class).invoke(null, found);
+            Log.i(TAG, "Loaded " + found.size() + " generated model accessors");
+        } catch (ClassNotFoundException ignore) {
+            // No models marked, or processor not run. Reflection will be used.
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to load generated model accessors: " + ex);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,201 @@
+package e.s.miniweb.core.template;
+
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dotted path into a model (e.g. "parent.child.item"), split into steps once.
+ * <p>
+ * Paths are cached by their text, and fields are cached by class and name.
+ * Missing fields are remembered too, so once the caches are warm, reading a path
+ * does no reflection searches and throws no exceptions.
+ * Classes marked with `@TemplateModel` are read by their generated accessor instead.
+ * <p>
+ * Steps:
+ * <pre>
+ *   name        -->  map.get("name") if the value is a Map, otherwise the public field 'name'
+ *   123         -->  item 123 of an Iterable
+ * </pre>
+ */
+final class ModelPath {
+    private static final String TAG = "ModelPath";
+
+    /** Returned by `read` when the path could not be followed, such as a missing or hidden field */
+    static final Object MISSING = new Object();
+
+    /** Cached in place of a Field when a class has no readable field of that name */
+    private static final Object NO_FIELD = new Object();
+
+    private static final ConcurrentHashMap<String, ModelPath> paths = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Object>> fields = new ConcurrentHashMap<>();
+
+    private static final int STEP_NAME = 0;
+    private static final int STEP_INDEX = 1;
+    /** Step looks like a number, but can't be read as one */
+    private static final int STEP_BAD_INDEX = 2;
+
+    /** Original path text */
+    final String Path;
+
+    /** True if the path has no dots. This is read as a single name, even if it looks like a number */
+    private final boolean simple;
+    private final String[] names;
+    private final int[] kinds;
+    private final int[] indexes;
+
+    private ModelPath(String path) {
+        Path = path;
+        simple = !path.contains(".");
+        names = simple ? new String[]{path} : path.split("[.]");
+        kinds = new int[names.length];
+        indexes = new int[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            if (simple || !looksLikeInt(names[i])) {
+                kinds[i] = STEP_NAME;
+                continue;
+            }
+
+            try {
+                indexes[i] = Integer.parseInt(names[i]);
+                kinds[i] = STEP_INDEX;
+            } catch (NumberFormatException ignore) {
+                kinds[i] = STEP_BAD_INDEX;
+            }
+        }
+    }
+
+    /** Get the path for the given text, splitting it if it has not been seen before */
+    static ModelPath of(String path) {
+        ModelPath found = paths.get(path);
+        if (found != null) return found;
+
+        found = new ModelPath(path);
+        ModelPath existing = paths.putIfAbsent(path, found);
+        return existing == null ? found : existing;
+    }
+
+    /**
+     * Read the value at this path from a model.
+     * Returns null if a step gave a null value, or `MISSING` if a field could not be read.
+     */
+    Object read(Object model) {
+        if (simple) { // simple case
+            if (model instanceof Map) {
+                try {
+                    Map<?, ?> map = (Map<?, ?>) model;
+                    return map.get(Path);
+                } catch (Exception ex) {
+                    Log.w(TAG, "Failed to find '" + Path + "' in map");
+                    return null;
+                }
+            }
+            return readField(model, Path);
+        }
+
+        // walk down the chain
+        Object src = model;
+        for (int i = 0; i < names.length; i++) {
+            if (src == null) return null;
+
+            switch (kinds[i]) {
+                case STEP_INDEX: // index into iterable, or fail
+                    src = getIterableIndexed(src, indexes[i]);
+                    break;
+
+                case STEP_BAD_INDEX:
+                    throw new NumberFormatException("For input string: \"" + names[i] + "\"");
+
+                default:
+                    if (src instanceof Map) { // try to find a value by map
+                        try {
+                            Map<?, ?> map = (Map<?, ?>) src;
+                            if (map.containsKey(names[i])) src = map.get(names[i]);
+                        } catch (Exception ex) {
+                            Log.w(TAG, "Failed to find '" + names[i] + "' in map");
+                            return null;
+                        }
+                    } else { // get field by name, or fail
+                        src = readField(src, names[i]);
+                        if (src == MISSING) return MISSING;
+                    }
+                    break;
+            }
+        }
+        return src;
+    }
+
+    /** Read a public field by name, or return `MISSING` */
+    private static Object readField(Object src, String name) {
+        ModelAccessor accessor = ModelAccessors.forClass(src.getClass());
+        if (accessor != null) {
+            Object value = accessor.read(src, name);
+            return value == ModelAccessor.MISSING ? MISSING : value;
+        }
+
+        ConcurrentHashMap<String, Object> known = fieldsOf(src.getClass());
+        Object field = known.get(name);
+        if (field == null) {
+            try {
+                field = src.getClass().getField(name);
+            } catch (NoSuchFieldException ignore) {
+                field = NO_FIELD;
+            }
+            known.put(name, field);
+        }
+        if (field == NO_FIELD) return MISSING;
+
+        try {
+            return ((Field) field).get(src);
+        } catch (IllegalAccessException ignore) {
+            // Access depends only on the class, so don't try this one again
+            known.put(name, NO_FIELD);
+            return MISSING;
+        }
+    }
+
+    private static ConcurrentHashMap<String, Object> fieldsOf(Class<?> cls) {
+        ConcurrentHashMap<String, Object> known = fields.get(cls);
+        if (known != null) return known;
+
+        known = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, Object> existing = fields.putIfAbsent(cls, known);
+        return existing == null ? known : existing;
+    }
+
+    /**
+     * try to read the value of an object at the given index. Returns null on failure
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object getIterableIndexed(Object src, int idx) {
+        // coding in Java feels more old fashioned than C.
+        try {
+            if (src == null || idx < 0) return null;
+            Iterable items = (Iterable) src;
+            Iterator iterator = items.iterator();
+
+            Object current = iterator.next();
+            for (int counter = 0; counter < idx; counter++)
+                current = iterator.next();
+
+            return current;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the string contains only ascii numbers
+     */
+    private static boolean looksLikeInt(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
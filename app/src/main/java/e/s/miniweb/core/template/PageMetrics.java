@@ -0,0 +1,54 @@
+package e.s.miniweb.core.template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts of sub-view includes made by page renders, for diagnostics.
+ * <p>
+ * Each `&lt;_view path=...>` rendered into a page counts as one include,
+ * including those repeated inside `&lt;_for>` blocks.
+ */
+public class PageMetrics {
+    // These are static so they survive warm reload
+    private static final Map<String, Integer> lastIncludes = new HashMap<>();
+    private static final Object lock = new Object();
+    private static long totalIncludes = 0;
+
+    /** Record the number of sub-views included by a render of a page view */
+    public static void RecordIncludes(String viewPath, int count) {
+        if (viewPath == null) return;
+        synchronized (lock) {
+            lastIncludes.put(viewPath, count);
+            totalIncludes += count;
+        }
+    }
+
+    /** Number of sub-views included the last time the page view was rendered, or -1 if it has not been rendered */
+    public static int LastIncludes(String viewPath) {
+        synchronized (lock) {
+            Integer count = lastIncludes.get(viewPath);
+            return count == null ? -1 : count;
+        }
+    }
+
+    /** Number of sub-views included by all page renders */
+    public static long TotalIncludes() {
+        synchronized (lock) {
+            return totalIncludes;
+        }
+    }
+
+    /** Description of the last include count for each page view rendered, like "home/index: 3" */
+    public static List<String> DescribeIncludes() {
+        List<String> result = new ArrayList<>();
+        synchronized (lock) {
+            for (Map.Entry<String, Integer> entry : lastIncludes.entrySet()) {
+                result.add(entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        return result;
+    }
+}
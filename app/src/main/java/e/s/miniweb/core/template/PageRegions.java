@@ -0,0 +1,72 @@
+package e.s.miniweb.core.template;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import e.s.miniweb.core.PermissionMask;
+import e.s.miniweb.core.Permissions;
+
+/**
+ * The `&lt;_needs>` blocks rendered into a page, so they can be rendered again when
+ * the session permissions change, without rendering the rest of the page.
+ * <p>
+ * Each marked block is wrapped in a pair of comments in the page output, like
+ * `&lt;!--_needs:12-->` and `&lt;!--/_needs:12-->`, so it can be found in the web view.
+ * Ids are unique across all renders, so url views and cached pages never clash with the page around them.
+ *
+ * @see TemplateEngine#RenderPermissionChanges(TemplateResponse)
+ */
+public final class PageRegions {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /** Regions in document order. A region always comes after the one it is inside */
+    final List<Region> regions;
+    /** `Permissions.Version()` when the regions were rendered */
+    final long version;
+
+    PageRegions(List<Region> regions, long version) {
+        this.regions = regions;
+        this.version = version;
+    }
+
+    /** Get an id for a new region */
+    static int newId() {
+        return nextId.incrementAndGet();
+    }
+
+    /** A permission gated block, and everything needed to render it again */
+    static final class Region {
+        /** Id used in the markers, or zero if the block is not marked and can't be patched */
+        final int id;
+        /** Id of the marked region this is inside, or zero */
+        final int parent;
+        final TemplateProgram program;
+        /** Position of the `OP_NEEDS` instruction. The region ends at its `right` position. For other blocks, the position of their instruction */
+        final int start;
+        final Object item;
+        final Object model;
+        /** Permissions checked by the block, or null for a url view, or a `&lt;_cache>` block that may have permission checks inside */
+        final PermissionMask required;
+        /** True if the block was shown */
+        final boolean visible;
+        /** True if an 'else' block outside the region depends on it. Any change then needs a full render */
+        boolean locked;
+
+        Region(int id, int parent, TemplateProgram program, int start, Object item, Object model, PermissionMask required, boolean visible) {
+            this.id = id;
+            this.parent = parent;
+            this.program = program;
+            this.start = start;
+            this.item = item;
+            this.model = model;
+            this.required = required;
+            this.visible = visible;
+        }
+
+        /** True if the block would render differently with the current session permissions */
+        boolean hasChanged(long renderedVersion) {
+            if (required == null) return renderedVersion != Permissions.Version();
+            return Permissions.HasAnyPermissions(required) != visible;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package e.s.miniweb.core.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page encoded as UTF-8 into byte chunks, read back as an InputStream by the web view.
+ * <p>
+ * The template engine writes text, which is encoded straight into chunks taken from a small
+ * shared pool. Full chunks are handed to the reader, and go back to the pool once read,
+ * so the page is never held as a String or a single byte array.
+ * <p>
+ * For streamed renders, the writer is a background thread and the reader is the web view.
+ * If the reader falls behind, the writer waits. If the reader closes the stream, the next
+ * write throws, which stops the render. If the reader stops reading without closing the
+ * stream, the writer gives up after a while, so the render thread is not held forever.
+ */
+public class PageStream extends InputStream {
+    /** Size of each chunk of encoded output */
+    private static final int CHUNK_SIZE = 8192;
+    /** Number of full chunks that can wait for the reader before a streamed render pauses */
+    private static final int STREAM_CHUNKS = 8;
+    /** Most chunks kept in the pool between pages */
+    private static final int MAX_POOLED = 16;
+    /** Longest a streamed render waits for the reader to take a chunk, before it gives up on the page */
+    private static final long STALLED_READER_MS = 10_000;
+    /** How often a waiting writer checks if the reader has gone */
+    private static final long WAIT_STEP_MS = 250;
+
+    private static final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+    private static final Chunk END = new Chunk(new byte[0], 0, false);
+
+    private final BlockingQueue<Chunk> queue;
+    private final long stallLimitMs;
+
+    // Document wrappers, used if the page is a body fragment. Null if not wrapping.
+    private final byte[] header;
+    private final byte[] footer;
+    private boolean wrapped = false;
+    private boolean first = true;
+
+    // Writer side
+    private byte[] buffer;
+    private int position;
+
+    // Reader side
+    private volatile boolean closed = false;
+    private Chunk reading;
+    private int readPosition;
+    private boolean ended = false;
+
+    private PageStream(int capacity, long stallLimitMs, String header, String footer) {
+        queue = new LinkedBlockingQueue<>(capacity);
+        this.stallLimitMs = stallLimitMs;
+        this.header = header == null ? null : encode(header);
+        this.footer = footer == null ? null : encode(footer);
+    }
+
+    /**
+     * Create a stream for a page that will be rendered in the background.
+     * If the page turns out to be a body fragment, the header and footer are added around it.
+     */
+    public static PageStream forRender(String header, String footer) {
+        return forRender(header, footer, STALLED_READER_MS);
+    }
+
+    /** Create a stream for a page that will be rendered in the background, giving up on a reader that stops for `stallLimitMs` */
+    static PageStream forRender(String header, String footer, long stallLimitMs) {
+        return new PageStream(STREAM_CHUNKS, stallLimitMs, header, footer);
+    }
+
+    /** Encode a whole page, ready to be read */
+    public static PageStream ofPage(String page) {
+        PageStream stream = new PageStream(Integer.MAX_VALUE, 0, null, null);
+        stream.write(page, 0, page.length());
+        stream.finish();
+        return stream;
+    }
+
+    /** True if the page already has document wrappers */
+    public static boolean isDocument(String page) {
+        return page.startsWith("<!doctype html>") || page.startsWith("<html");
+    }
+
+    //region Writer side
+
+    /**
+     * Encode a range of text into the page.
+     * Unpaired surrogate characters are written as '?'
+     */
+    void write(String text, int left, int right) {
+        if (buffer == null) buffer = take();
+        byte[] buf = buffer;
+        int pos = position;
+
+        for (int i = left; i < right; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) { // ascii. This is most mark-up
+                if (pos >= CHUNK_SIZE) {
+                    position = pos;
+                    publish();
+                    buf = buffer;
+                    pos = 0;
+                }
+                buf[pos++] = (byte) c;
+                continue;
+            }
+
+            if (pos > CHUNK_SIZE - 4) { // make sure there is room for the longest encoding
+                position = pos;
+                publish();
+                buf = buffer;
+                pos = 0;
+            }
+
+            if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < right && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int point = Character.toCodePoint(c, text.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (point >> 18));
+                buf[pos++] = (byte) (0x80 | ((point >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((point >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (point & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        position = pos;
+    }
+
+    /** Copy text that has already been encoded as UTF-8 into the page */
+    void write(byte[] encoded) {
+        if (buffer == null) buffer = take();
+
+        int offset = 0;
+        while (offset < encoded.length) {
+            if (position >= CHUNK_SIZE) publish();
+
+            int count = Math.min(encoded.length - offset, CHUNK_SIZE - position);
+            System.arraycopy(encoded, offset, buffer, position, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    /** End of the page. Any waiting output is passed to the reader */
+    void finish() {
+        if (closed) {
+            if (buffer != null) give(buffer);
+            buffer = null;
+            return;
+        }
+        if (buffer != null && position > 0) publish();
+        else if (first) startPage(null, 0);
+
+        if (wrapped) put(new Chunk(footer, footer.length, false));
+        put(END);
+
+        if (buffer != null) give(buffer);
+        buffer = null;
+    }
+
+    /** Pass the current chunk to the reader, and start a new one */
+    private void publish() {
+        if (closed) throw new IllegalStateException("Page stream was closed by reader");
+
+        Chunk chunk = new Chunk(buffer, position, true);
+        buffer = take();
+        position = 0;
+
+        if (first) startPage(chunk.data, chunk.length);
+        put(chunk);
+    }
+
+    /** Add the header if the start of the page is not a full document */
+    private void startPage(byte[] start, int length) {
+        first = false;
+        if (header == null) return;
+        if (startsWith(start, length, "<!doctype html>") || startsWith(start, length, "<html")) return;
+
+        wrapped = true;
+        put(new Chunk(header, header.length, false));
+    }
+
+    private static boolean startsWith(byte[] data, int length, String prefix) {
+        if (data == null || length < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void put(Chunk chunk) {
+        long waited = 0;
+        try {
+            while (!queue.offer(chunk, WAIT_STEP_MS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    release(chunk);
+                    throw new IllegalStateException("Page stream was closed by reader");
+                }
+                waited += WAIT_STEP_MS;
+                if (waited >= stallLimitMs) {
+                    release(chunk);
+                    abandon();
+                    throw new IllegalStateException("Page stream reader stopped reading");
+                }
+            }
+        } catch (InterruptedException ex) {
+            release(chunk);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing page", ex);
+        }
+    }
+
+    /**
+     * The reader has stopped reading, but has not closed the stream.
+     * Give back the chunks it has not read, and end the page in case it comes back.
+     */
+    private void abandon() {
+        closed = true;
+        Chunk waiting;
+        while ((waiting = queue.poll()) != null) release(waiting);
+        queue.offer(END);
+    }
+
+    //endregion
+
+    //region Reader side
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = current();
+        if (chunk == null) return -1;
+        return chunk.data[readPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        Chunk chunk = current();
+        if (chunk == null) return -1;
+
+        int count = Math.min(len, chunk.length - readPosition);
+        System.arraycopy(chunk.data, readPosition, b, off, count);
+        readPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return reading == null ? 0 : reading.length - readPosition;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (reading != null) release(reading);
+        reading = null;
+
+        Chunk waiting;
+        while ((waiting = queue.poll()) != null) release(waiting);
+    }
+
+    /** Chunk with data left to read, waiting for the writer if needed. Null at end of page */
+    private Chunk current() throws IOException {
+        while (reading == null || readPosition >= reading.length) {
+            if (reading != null) release(reading);
+            reading = null;
+            if (ended || closed) return null;
+
+            Chunk next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading page");
+            }
+
+            if (next == END) {
+                ended = true;
+                return null;
+            }
+            reading = next;
+            readPosition = 0;
+        }
+        return reading;
+    }
+
+    //endregion
+
+    //region Chunk pool
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        /** True if the data should go back to the pool when read */
+        final boolean pooled;
+
+        Chunk(byte[] data, int length, boolean pooled) {
+            this.data = data;
+            this.length = length;
+            this.pooled = pooled;
+        }
+    }
+
+    private static byte[] take() {
+        synchronized (pool) {
+            byte[] found = pool.poll();
+            if (found != null) return found;
+        }
+        return new byte[CHUNK_SIZE];
+    }
+
+    private static void give(byte[] data) {
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) pool.push(data);
+        }
+    }
+
+    private static void release(Chunk chunk) {
+        if (chunk.pooled) give(chunk.data);
+    }
+
+    private static byte[] encode(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex); // UTF-8 is always supported
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,313 @@
+package e.s.miniweb.core.template;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The parameters of a url query, as a map of name to value.
+ * <p>
+ * The query is read in one pass, which decodes the names, and records where each value is.
+ * Percent-escapes and '+' in values are decoded when a value is first used, so values
+ * a controller never reads cost nothing. An index of the names is kept, so lookups and
+ * `size()` don't scan the parameters.
+ * <p>
+ * If a parameter is repeated, `get` gives the last value, and `GetAll` gives every value in order.
+ * A parameter with no '=' has its own name as its value, so `?isPostback` gives `isPostback=isPostback`.
+ * <p>
+ * Adding a value with `put` replaces all values of that name. Names and values are never null.
+ * This is not thread safe. A map that is only read can be shared, as decoding the same
+ * part twice on different threads gives the same string.
+ */
+public final class QueryParams extends AbstractMap<String, String> {
+    /** `bounds` value where a parameter has no '=' */
+    private static final int NO_VALUE = -1;
+
+    /** Encoded query, or null if there was none */
+    private final String src;
+    private int count;
+    /** For each parameter: value start, value end. Offsets are into `src` */
+    private int[] bounds;
+    /** For each parameter, true if its value needs decoding */
+    private boolean[] escaped;
+    /** For each parameter, true if a later parameter has the same name */
+    private boolean[] shadowed;
+    /** Decoded names */
+    private String[] names;
+    /** Decoded values. Filled on first use, or when a parameter is added */
+    private String[] values;
+    /** name => index of the last parameter with that name */
+    private final HashMap<String, Integer> last;
+
+    /**
+     * Read a url query, as given by `Uri.getEncodedQuery()`.
+     * Parameters are separated by '&' or '?'. Empty parameters are skipped.
+     */
+    public QueryParams(String encodedQuery) {
+        src = encodedQuery;
+        int size = encodedQuery == null ? 4 : Math.max(4, encodedQuery.length() / 8);
+        bounds = new int[size * 2];
+        escaped = new boolean[size];
+        shadowed = new boolean[size];
+        names = new String[size];
+        values = new String[size];
+        last = new HashMap<>(size * 2);
+        if (encodedQuery != null) parse(encodedQuery);
+    }
+
+    /** A copy that can be changed without changing the original */
+    public QueryParams(QueryParams other) {
+        src = other.src;
+        count = other.count;
+        bounds = other.bounds.clone();
+        escaped = other.escaped.clone();
+        shadowed = other.shadowed.clone();
+        names = other.names.clone();
+        values = other.values.clone();
+        last = new HashMap<>(other.last);
+    }
+
+    /**
+     * All values given for a parameter, in the order they were given.
+     * This works for any parameter map. Maps other than `QueryParams` have at most one value per name.
+     */
+    public static List<String> GetAll(Map<String, String> params, String name) {
+        if (params instanceof QueryParams) return ((QueryParams) params).getAll(name);
+        if (params == null || !params.containsKey(name)) return Collections.emptyList();
+        return Collections.singletonList(params.get(name));
+    }
+
+    /** All values given for a parameter, in the order they were given */
+    public List<String> getAll(String name) {
+        if (!last.containsKey(name)) return Collections.emptyList();
+        List<String> result = null;
+        for (int i = 0; i < count; i++) {
+            if (!names[i].equals(name)) continue;
+            if (result == null) result = new ArrayList<>(2);
+            result.add(valueAt(i));
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    @Override
+    public String get(Object key) {
+        Integer found = last.get(key);
+        return found == null ? null : valueAt(found);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return last.containsKey(key);
+    }
+
+    /** Replace all values of a parameter. The value can't be null */
+    @Override
+    public String put(String key, String value) {
+        if (key == null || value == null) throw new NullPointerException("Query parameters can't be null");
+        String previous = remove(key);
+
+        if (count >= names.length) grow();
+        int i = count++;
+        names[i] = key;
+        values[i] = value;
+        escaped[i] = false;
+        shadowed[i] = false;
+        last.put(key, i);
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        Integer found = last.remove(key);
+        if (found == null) return null;
+        String previous = valueAt(found);
+
+        // Close the gaps. The other names keep their order, so only their indexes change
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(key)) continue;
+            if (kept != i) {
+                System.arraycopy(bounds, i * 2, bounds, kept * 2, 2);
+                escaped[kept] = escaped[i];
+                shadowed[kept] = shadowed[i];
+                names[kept] = names[i];
+                values[kept] = values[i];
+                if (!shadowed[kept]) last.put(names[kept], kept);
+            }
+            kept++;
+        }
+        Arrays.fill(names, kept, count, null);
+        Arrays.fill(values, kept, count, null);
+        count = kept;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, 0, count, null);
+        Arrays.fill(values, 0, count, null);
+        last.clear();
+        count = 0;
+    }
+
+    /** Number of different names */
+    @Override
+    public int size() {
+        return last.size();
+    }
+
+    /** One entry per name, with its last value. The set can't be changed; use `put` and `remove` on the map. */
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next = following(-1);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= count) throw new NoSuchElementException();
+                        int i = next;
+                        next = following(i);
+                        return new SimpleImmutableEntry<>(names[i], valueAt(i));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return QueryParams.this.size();
+            }
+        };
+    }
+
+    //region internals
+
+    /** Decode the names, and record where each value is. Values are not decoded here */
+    private void parse(String query) {
+        int length = query.length();
+        int start = 0;
+        while (start <= length) {
+            int nameEnd = NO_VALUE;
+            boolean nameEscaped = false;
+            boolean valueEscaped = false;
+            int end = start;
+            for (; end < length; end++) {
+                char c = query.charAt(end);
+                if (c == '&' || c == '?') break;
+                if (c == '=' && nameEnd == NO_VALUE) {
+                    nameEnd = end;
+                } else if (c == '%' || c == '+') {
+                    if (nameEnd == NO_VALUE) nameEscaped = true;
+                    else valueEscaped = true;
+                }
+            }
+
+            if (end > start) {
+                if (count >= names.length) grow();
+                int b = count * 2;
+                String name;
+                if (nameEnd == NO_VALUE) { // `?name`
+                    name = decode(start, end, nameEscaped);
+                    bounds[b] = NO_VALUE;
+                    bounds[b + 1] = NO_VALUE;
+                } else {
+                    name = decode(start, nameEnd, nameEscaped);
+                    bounds[b] = nameEnd + 1;
+                    bounds[b + 1] = end;
+                }
+                names[count] = name;
+                escaped[count] = valueEscaped;
+                Integer earlier = last.put(name, count);
+                if (earlier != null) shadowed[earlier] = true;
+                count++;
+            }
+            start = end + 1;
+        }
+    }
+
+    /** Index of the next parameter after `i` that is the last with its name, or `count` */
+    private int following(int i) {
+        for (int j = i + 1; j < count; j++) {
+            if (!shadowed[j]) return j;
+        }
+        return count;
+    }
+
+    private String valueAt(int i) {
+        String value = values[i];
+        if (value == null) {
+            int start = bounds[i * 2];
+            value = start == NO_VALUE
+                    ? names[i]
+                    : decode(start, bounds[i * 2 + 1], escaped[i]);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decode part of the query. '+' is a space, and runs of `%XX` are read as UTF-8.
+     * A '%' that is not followed by two hex digits is kept as it is.
+     */
+    private String decode(int start, int end, boolean isEscaped) {
+        if (!isEscaped) return src.substring(start, end);
+
+        StringBuilder out = new StringBuilder(end - start);
+        byte[] bytes = null;
+        int i = start;
+        while (i < end) {
+            char c = src.charAt(i);
+            if (c == '+') {
+                out.append(' ');
+                i++;
+            } else if (c == '%' && i + 2 < end && hexValue(src, i + 1) >= 0) {
+                if (bytes == null) bytes = new byte[(end - i) / 3];
+                int length = 0;
+                while (i + 2 < end && src.charAt(i) == '%' && hexValue(src, i + 1) >= 0) {
+                    bytes[length++] = (byte) hexValue(src, i + 1);
+                    i += 3;
+                }
+                out.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /** Value of the two hex digits at `i`, or -1 if they are not hex digits */
+    private static int hexValue(String s, int i) {
+        int high = Character.digit(s.charAt(i), 16);
+        int low = Character.digit(s.charAt(i + 1), 16);
+        if (high < 0 || low < 0) return -1;
+        return (high << 4) | low;
+    }
+
+    private void grow() {
+        int size = names.length * 2;
+        bounds = Arrays.copyOf(bounds, size * 2);
+        escaped = Arrays.copyOf(escaped, size);
+        shadowed = Arrays.copyOf(shadowed, size);
+        names = Arrays.copyOf(names, size);
+        values = Arrays.copyOf(values, size);
+    }
+
+    //endregion
+}
@@ -0,0 +1,75 @@
+package e.s.miniweb.core.template;
+
+import android.util.Log;
+
+import java.util.List;
+
+import e.s.miniweb.R;
+import e.s.miniweb.core.App;
+
+/**
+ * Output and state for a single page render.
+ * <p>
+ * Everything that changes while a page renders is kept here, and a new context is made
+ * for each page. This lets one `TemplateEngine` render several pages at the same time,
+ * and lets url sub-views render in the middle of a page without changing its state.
+ * <p>
+ * Path sub-views render into the context of the page that includes them.
+ * If given a stream, output is encoded straight into it as the page renders.
+ */
+final class RenderContext {
+    private static final String TAG = "RenderContext";
+
+    private final StringBuilder out;
+    private final PageStream stream;
+
+    /** Number of sub-views rendered into this page */
+    int includes = 0;
+
+    /** controls 'else' for 'for' and 'needs'. True if the last block did not show */
+    boolean lastBlockWasHidden = false;
+
+    /** If not null, `&lt;_needs>` blocks are marked in the output and recorded here. See `PageRegions` */
+    List<PageRegions.Region> regions;
+
+    /** Id of the marked region being rendered, or zero */
+    int openRegion = 0;
+
+    /**
+     * Range of `regions` holding the region that set `lastBlockWasHidden`, and the regions inside it.
+     * Start is -1 if the 'else' state was set by something else.
+     */
+    int flagRegionStart = -1;
+    int flagRegionEnd = -1;
+
+    RenderContext() {
+        out = new StringBuilder();
+        stream = null;
+    }
+
+    RenderContext(PageStream stream) {
+        out = null;
+        this.stream = stream;
+    }
+
+    // This mess is for GC optimisation. It all gets inlined anyway.
+    void add(String t) {if (stream == null) out.append(t); else stream.write(t, 0, t.length());}
+    void error() {add(App.str(R.string.msg_err_inline));}
+    void addRange(String t, int left, int right) {if (stream == null) out.append(t, left, right); else stream.write(t, left, right);}
+    void addLiteral(String t, int left, int right, byte[] encoded) {if (stream == null) out.append(t, left, right); else stream.write(encoded);}
+    String output() {return out.toString();}
+
+    /** An 'else' block outside of the region depends on it, so it can't be patched by itself */
+    void lockFlagRegion() {
+        for (int i = flagRegionStart; i < flagRegionEnd; i++) regions.get(i).locked = true;
+    }
+
+    /** Pass any remaining output to the stream, and mark the end of the page */
+    void close() {
+        try {
+            stream.finish();
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to complete page stream: " + ex);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package e.s.miniweb.core.template;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide store of compiled templates, keyed by asset path.
+ * <p>
+ * Templates are read and parsed on first use, and re-used for every
+ * later render. Entries are dropped by the hot-reload system when
+ * the emulator host reports that a file has changed.
+ */
+public class TemplateCache {
+    // These are static so they survive warm reload
+    private static final Map<String, CompiledTemplate> templates = new HashMap<>();
+    private static final Object lock = new Object();
+    private static long hits = 0;
+    private static long misses = 0;
+    private static int warmedUp = 0;
+    private static long warmUpMs = -1;
+
+    /** Get a compiled template by asset path, or null if it is not cached */
+    public static CompiledTemplate Get(String path) {
+        if (path == null) return null;
+        synchronized (lock) {
+            CompiledTemplate found = templates.get(path);
+            if (found == null) misses++;
+            else hits++;
+            return found;
+        }
+    }
+
+    /** Store a compiled template against its asset path */
+    public static void Put(String path, CompiledTemplate template) {
+        if (path == null || template == null) return;
+        synchronized (lock) {
+            templates.put(path, template);
+        }
+    }
+
+    /**
+     * Remove a template from the cache, so it will be read again on next use.
+     * Templates can be requested with or without the '.html' ending, so both are removed.
+     */
+    public static void Invalidate(String path) {
+        if (path == null) return;
+        synchronized (lock) {
+            templates.remove(path);
+            if (path.endsWith(".html")) templates.remove(path.substring(0, path.length() - 5));
+        }
+    }
+
+    /** Remove all templates from the cache */
+    public static void Clear() {
+        synchronized (lock) {
+            templates.clear();
+        }
+    }
+
+    /** Number of template requests that were served from the cache */
+    public static long Hits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    /** Number of template requests that had to read and parse the template file */
+    public static long Misses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /** Record the result of `TemplateEngine.WarmUp` */
+    static void RecordWarmUp(int count, long timeMs) {
+        synchronized (lock) {
+            warmedUp = count;
+            warmUpMs = timeMs;
+        }
+    }
+
+    /** Number of templates compiled by the start-up warm-up */
+    public static int WarmedUp() {
+        synchronized (lock) {
+            return warmedUp;
+        }
+    }
+
+    /** Time taken by the start-up warm-up in milliseconds, or -1 if it has not run */
+    public static long WarmUpMillis() {
+        synchronized (lock) {
+            return warmUpMs;
+        }
+    }
+}
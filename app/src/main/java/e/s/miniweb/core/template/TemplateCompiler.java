@@ -0,0 +1,568 @@
+package e.s.miniweb.core.template;
+
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import e.s.miniweb.core.PermissionMask;
+import e.s.miniweb.core.Permissions;
+
+/**
+ * Lowers a parsed `HTree` into a flat `TemplateProgram`.
+ * <p>
+ * Known directives:
+ * <pre>
+ *   &lt;_for {path}>{content}&lt;/_for>         -- repeat contents for each non-null item in model
+ *   &lt;_else>{content}&lt;/_else>              -- show if previous _for did not display
+ *   &lt;_>{path}&lt;/_>                         -- insert value from model
+ *   &lt;_needs {perms...}>{content}&lt;/_needs> -- show content only if user has at least one of the permissions
+ *   &lt;_view {params...}>&lt;/_view>           -- inject a sub-view into the page
+ *   &lt;_cache key={paths} ttl={seconds}>{content}&lt;/_cache> -- keep the output of content, for the same key values
+ * </pre>
+ * Template directives are never self-closing (i.e. &lt;tag/>). They should not be empty (i.e. &lt;tag>&lt;/tag>)
+ * <p>
+ * Paths:
+ * <pre>
+ *   a           -->  model.a         (or model.get("a") )
+ *   a.b.c       -->  model.a.b.c
+ *   #           -->  item
+ *   #.x.y       -->  item.x.y
+ * </pre>
+ * <p>
+ * Moustache holes, like '{{a.b.c}}', can go anywhere in text, attributes, scripts and
+ * comments, and in directives. They always read from the page model.
+ * Holes in a directive's tag (or anywhere in a &lt;_> value) are filled on each render, before the
+ * directive is compiled. &lt;_view> parameters are filled without compiling the view again.
+ * <p>
+ * &lt;_needs> blocks are marked as regions where possible, so they can be patched into a live page
+ * when permissions change. See `PageRegions`
+ */
+final class TemplateCompiler {
+    private static final String TAG = "TemplateCompiler";
+    /** Parameter of a url view whose controller can run at the same time as the rest of the page */
+    private static final String PARALLEL = "parallel";
+
+    private final HTree tree;
+    private final String src;
+    /** True if the holes in this source have already been filled. Any left over are not filled again */
+    private final boolean filled;
+    private int[] ops = new int[64];
+    private int[] left = new int[64];
+    private int[] right = new int[64];
+    private Object[] args = new Object[64];
+    private int count = 0;
+
+    /** Range of mark-up not yet emitted. Touching ranges are joined before they are emitted */
+    private int pendingStart = -1;
+    private int pendingEnd = -1;
+    private int depth = 0;
+    private int maxDepth = 0;
+    /** Number of 'for', 'else', 'needs' and 'cache' blocks we are inside */
+    private int blocks = 0;
+    /** Positions of url views marked `parallel` outside of any block */
+    private int[] partials = new int[4];
+    private int partialCount = 0;
+    /** Number of elements we are inside whose content is not mark-up, like &lt;textarea>. Regions can't be marked in these */
+    private int rawText = 0;
+    /** Position of the 'needs' block that sets the 'else' state, or -1 if the state comes from something else */
+    private int lastNeeds = -1;
+    /** Value of `blocks` outside of `lastNeeds` */
+    private int lastNeedsBlocks = 0;
+
+    /** Kinds of open container, for `leave` */
+    private static final int FRAME_HTML = 0;
+    private static final int FRAME_FOR = 1;
+    private static final int FRAME_ELSE = 2;
+    private static final int FRAME_NEEDS = 3;
+    private static final int FRAME_CACHE = 4;
+
+    /**
+     * Stack of open containers. `frameNext` is the next child to lower.
+     * `frameA` and `frameB` depend on the kind: the raw text flag for HTML, the loop body for 'for',
+     * and the saved 'else' state for 'else' and 'cache'.
+     */
+    private int[] frameNode = new int[16];
+    private int[] frameNext = new int[16];
+    private int[] frameKind = new int[16];
+    private int[] frameStart = new int[16];
+    private int[] frameA = new int[16];
+    private int[] frameB = new int[16];
+    private int frames = 0;
+
+    /** Last search for '{{'. See `nextHole` */
+    private int holeFrom = Integer.MAX_VALUE;
+    private int holeAt = -1;
+
+    private TemplateCompiler(HTree tree, boolean filled) {
+        this.tree = tree;
+        this.src = tree.Src;
+        this.filled = filled;
+    }
+
+    /** Lower a parsed template into a program */
+    static TemplateProgram compile(HTree tree) {
+        TemplateCompiler compiler = new TemplateCompiler(tree, false);
+        compiler.lower(0);
+        compiler.flush();
+        return compiler.build();
+    }
+
+    /**
+     * Lower a directive whose holes have been filled by `OP_FILL`.
+     * Model values can contain '{{', so holes in directive tags are left as they are here.
+     */
+    static TemplateProgram compileFilled(HTree tree) {
+        TemplateCompiler compiler = new TemplateCompiler(tree, true);
+        compiler.lower(0);
+        compiler.flush();
+        return compiler.build();
+    }
+
+    private TemplateProgram build() {
+        // Encode literal text once, so streamed renders can copy it straight out
+        for (int i = 0; i < count; i++) {
+            if (ops[i] == TemplateProgram.OP_TEXT) args[i] = encode(src.substring(left[i], right[i]));
+        }
+
+        return new TemplateProgram(src,
+                Arrays.copyOf(ops, count), Arrays.copyOf(left, count), Arrays.copyOf(right, count),
+                Arrays.copyOf(args, count), maxDepth, Arrays.copyOf(partials, partialCount));
+    }
+
+    /**
+     * Walk the tree, emitting instructions for text and directives.
+     * Open containers are kept on a stack of frames, so any depth of nesting can be lowered.
+     */
+    private void lower(int root) {
+        enter(root);
+        while (frames > 0) {
+            int frame = frames - 1;
+            int child = frameNext[frame];
+            if (child != HTree.NONE) {
+                frameNext[frame] = tree.nextSibling[child];
+                enter(child);
+            } else {
+                frames--;
+                leave(frame);
+            }
+        }
+    }
+
+    /** Emit the start of a node. Containers are pushed as a frame, and their children are lowered next */
+    private void enter(int node) {
+        // Content or recursion?
+        boolean underscored = tree.isUnderscored(node);
+        if (!underscored && tree.isLeaf(node)) {
+            // not a container. Slap in contents
+            text(tree.srcStart[node], tree.srcEnd[node] + 1);
+            return;
+        }
+
+        if (!underscored) { // Normal HTML
+            boolean raw = isRawText(node);
+            if (raw) rawText++;
+            // Opening tag. False for comments, scripts, etc
+            if (tree.srcStart[node] < tree.contStart[node]) text(tree.srcStart[node], tree.contStart[node]);
+            push(node, FRAME_HTML, 0, raw ? 1 : 0, 0);
+            return;
+        }
+
+        // Special things
+        if (!validRange(tree.srcStart[node], tree.contStart[node])) { // broken mark-up. Fail if we ever try to render it
+            emit(TemplateProgram.OP_FAIL, 0, 0, null);
+            return;
+        }
+        Map<String, String> params = new HashMap<>();
+        String tag = decomposeTag(src.substring(tree.srcStart[node], tree.contStart[node]), params);
+        if (!filled && !tag.equals("_view") && hasHoles(node, tag)) {
+            // Filled and compiled on each render. The 'else' state then comes from whatever the directive does.
+            emit(TemplateProgram.OP_FILL, 0, 0, src.substring(tree.srcStart[node], tree.srcEnd[node] + 1));
+            lastNeeds = -1;
+            return;
+        }
+        switch (tag) {
+            case "_": // plain data lookup
+            {
+                emit(TemplateProgram.OP_VALUE, 0, 0, valuePath(tree.innerText(node)));
+                break;
+            }
+            case "_for":
+            {
+                if (params.isEmpty()) {
+                    int start = emit(TemplateProgram.OP_FOR, 0, 0, null);
+                    jumpHere(start);
+                    break;
+                }
+                String path = params.keySet().iterator().next();
+                int start = emit(TemplateProgram.OP_FOR, 0, 0, forPath(path));
+                lastNeeds = -1;
+
+                depth++;
+                blocks++;
+                if (depth > maxDepth) maxDepth = depth;
+                push(node, FRAME_FOR, start, count, 0);
+                break;
+            }
+            case "_else":
+            {
+                int start = emit(TemplateProgram.OP_ELSE, 0, 0, null);
+                blocks++;
+                push(node, FRAME_ELSE, start, lastNeeds, lastNeedsBlocks);
+                break;
+            }
+            case "_needs":
+            {
+                PermissionMask required = Permissions.CompileMask(params.keySet().toArray(new String[0]));
+                int start = emit(TemplateProgram.OP_NEEDS, 0, 0, required);
+                lastNeeds = -1;
+                blocks++;
+                push(node, FRAME_NEEDS, start, 0, 0);
+                break;
+            }
+            case "_view":
+            {
+                // Parameters can have '{{path}}' holes. These are filled on each render.
+                int hasHoles = 0;
+                for (String value : params.values()) {
+                    if (value.contains("{{")) hasHoles = 1;
+                }
+                int position = emit(TemplateProgram.OP_VIEW, hasHoles, 0, params);
+                if (!params.containsKey("url")) lastNeeds = -1; // path views render into the page, and reset the 'else' state
+
+                // Url views outside of any block always run, so can be started before the render reaches them.
+                // Their controllers then run before the rest of the page, so this is only done where the template asks.
+                if (blocks == 0 && params.containsKey("url") && params.containsKey(PARALLEL)) {
+                    if (partialCount >= partials.length) partials = Arrays.copyOf(partials, partialCount * 2);
+                    partials[partialCount++] = position;
+                    right[position] = partialCount;
+                }
+                break;
+            }
+            case "_cache":
+            {
+                int start = emit(TemplateProgram.OP_CACHE, 0, 0, cacheSpec(params));
+                blocks++;
+                push(node, FRAME_CACHE, start, lastNeeds, lastNeedsBlocks);
+                break;
+            }
+            default: {
+                Log.w(TAG, "Unknown tag: '" + tag + "'");
+                emit(TemplateProgram.OP_ERROR, 0, 0, null);
+                break;
+            }
+        }
+    }
+
+    /** Emit the end of a container, after all its children have been lowered */
+    private void leave(int frame) {
+        int node = frameNode[frame];
+        int start = frameStart[frame];
+        switch (frameKind[frame]) {
+            case FRAME_HTML:
+            {
+                // Closing tag. False for comments, scripts, etc
+                if (tree.contEnd[node] < tree.srcEnd[node]) text(tree.contEnd[node] + 1, tree.srcEnd[node] + 1);
+                if (frameA[frame] != 0) rawText--;
+                break;
+            }
+            case FRAME_FOR:
+            {
+                emit(TemplateProgram.OP_LOOP, frameA[frame], 0, null);
+                blocks--;
+                depth--;
+
+                jumpHere(start);
+                break;
+            }
+            case FRAME_ELSE:
+            {
+                blocks--;
+                jumpHere(start);
+
+                int needs = frameA[frame];
+                lastNeeds = needs;
+                lastNeedsBlocks = frameB[frame];
+                if (needs >= 0) attachElse(needs, start);
+                break;
+            }
+            case FRAME_NEEDS:
+            {
+                blocks--;
+                jumpHere(start);
+
+                // Comments would show as text in elements like <textarea>, so the region is not marked there
+                if (rawText == 0) right[start] = count;
+                lastNeeds = start;
+                lastNeedsBlocks = blocks;
+                break;
+            }
+            case FRAME_CACHE:
+            {
+                blocks--;
+                jumpHere(start);
+
+                // Sub-views and filled directives may have permission blocks, or permission gated routes, of their own
+                for (int i = start + 1; i < count; i++) {
+                    if (ops[i] == TemplateProgram.OP_NEEDS || ops[i] == TemplateProgram.OP_VIEW || ops[i] == TemplateProgram.OP_FILL) right[start] = 1;
+                }
+                // An 'else' after this is checked in `attachElse`
+                lastNeeds = frameA[frame];
+                lastNeedsBlocks = frameB[frame];
+                break;
+            }
+        }
+    }
+
+    /** Open a container. `a` and `b` are state to restore or use when it is left */
+    private void push(int node, int kind, int start, int a, int b) {
+        if (frames >= frameNode.length) {
+            int size = frameNode.length * 2;
+            frameNode = Arrays.copyOf(frameNode, size);
+            frameNext = Arrays.copyOf(frameNext, size);
+            frameKind = Arrays.copyOf(frameKind, size);
+            frameStart = Arrays.copyOf(frameStart, size);
+            frameA = Arrays.copyOf(frameA, size);
+            frameB = Arrays.copyOf(frameB, size);
+        }
+        frameNode[frames] = node;
+        frameNext[frames] = tree.firstChild[node];
+        frameKind[frames] = kind;
+        frameStart[frames] = start;
+        frameA[frames] = a;
+        frameB[frames] = b;
+        frames++;
+    }
+
+    /**
+     * An 'else' block shows or hides with the 'needs' block before it, so they are patched together:
+     * the region is extended to the end of the 'else' block.
+     * If anything between them could change the 'else' state with permissions, or they are nested
+     * differently, the region is left as it is. The engine then finds the 'else' block outside
+     * the region when it renders, and won't patch the region by itself.
+     */
+    private void attachElse(int needs, int elseStart) {
+        if (right[needs] == 0) return;
+
+        boolean simple = lastNeedsBlocks == blocks;
+        for (int i = needs + 1; simple && i < elseStart; i++) {
+            int op = ops[i];
+            if (op == TemplateProgram.OP_NEEDS || op == TemplateProgram.OP_CACHE || op == TemplateProgram.OP_FILL) simple = false;
+            if (op == TemplateProgram.OP_VIEW && !((Map<?, ?>) args[i]).containsKey("url")) simple = false;
+        }
+        if (simple) right[needs] = count;
+    }
+
+    /** True for elements whose content is shown as text, where an HTML comment would not be a comment */
+    private boolean isRawText(int node) {
+        if (tree.type[node] != HNode.TYPE_NODE) return false;
+        int start = tree.srcStart[node] + 1;
+        if (start >= src.length() || src.charAt(tree.srcStart[node]) != '<') return false;
+
+        int end = start;
+        while (end < src.length() && Character.isLetter(src.charAt(end))) end++;
+        String tag = src.substring(start, end).toLowerCase();
+        return tag.equals("textarea") || tag.equals("title") || tag.equals("style");
+    }
+
+    /**
+     * True if a directive has '{{path}}' holes in its tag.
+     * The contents of other directives are lowered as normal, but a `&lt;_>` value is all one path.
+     */
+    private boolean hasHoles(int node, String tag) {
+        int end = tag.equals("_") ? tree.srcEnd[node] + 1 : tree.contStart[node];
+        int open = src.indexOf("{{", tree.srcStart[node]);
+        return open >= 0 && open < end;
+    }
+
+    /** Path for a `&lt;_>` value. This can read the item itself with '#' */
+    private static TemplateProgram.ValuePath valuePath(String path) {
+        if (Objects.equals(path, "#")) return new TemplateProgram.ValuePath(true, "");
+        if (path.startsWith("#.")) return new TemplateProgram.ValuePath(true, path.substring(2));
+        return new TemplateProgram.ValuePath(false, path);
+    }
+
+    /** Path for a `&lt;_for>` block */
+    private static TemplateProgram.ValuePath forPath(String path) {
+        if (path.startsWith("#.")) return new TemplateProgram.ValuePath(true, path.substring(2));
+        return new TemplateProgram.ValuePath(false, path);
+    }
+
+    /**
+     * Settings for a `&lt;_cache>` block. Keys are model paths, separated by commas or spaces.
+     * Returns null if the time-to-live is missing or invalid, in which case the block is rendered as normal.
+     */
+    private static TemplateProgram.CacheSpec cacheSpec(Map<String, String> params) {
+        long seconds;
+        try {
+            seconds = Long.parseLong(params.containsKey("ttl") ? params.get("ttl").trim() : "");
+        } catch (NumberFormatException ex) {
+            seconds = 0;
+        }
+        if (seconds <= 0) {
+            Log.w(TAG, "Cache block needs a 'ttl' in seconds. Block will not be cached.");
+            return null;
+        }
+
+        String key = params.containsKey("key") ? params.get("key").trim() : "";
+        String[] paths = key.isEmpty() ? new String[0] : key.split("[,\\s]+");
+        TemplateProgram.ValuePath[] keys = new TemplateProgram.ValuePath[paths.length];
+        for (int i = 0; i < paths.length; i++) keys[i] = valuePath(paths[i]);
+
+        return new TemplateProgram.CacheSpec(keys, seconds * 1000);
+    }
+
+    /** Add a range of mark-up to the output, joining it to the pending range if they touch */
+    private void text(int start, int end) {
+        if (!validRange(start, end)) { // broken mark-up. Fail if we ever try to render it
+            emit(TemplateProgram.OP_FAIL, 0, 0, null);
+            return;
+        }
+        if (end == start) return;
+        if (pendingEnd == start) {
+            pendingEnd = end;
+            return;
+        }
+        flush();
+        pendingStart = start;
+        pendingEnd = end;
+    }
+
+    /**
+     * Emit the pending range of mark-up.
+     * Any '{{path}}' holes are split out as value lookups on the page model.
+     * This is done on the joined range, as holes can cross node boundaries.
+     */
+    private void flush() {
+        int start = pendingStart;
+        int end = pendingEnd;
+        pendingStart = pendingEnd = -1;
+        if (start < 0) return;
+
+        int left = start;
+        while (left < end) {
+            int open = nextHole(left);
+            if (open < 0 || open >= end) break;
+
+            // Holes must close on the same line. If not, it's just text.
+            int close = src.indexOf("}}", open + 2);
+            if (close < 0 || close + 2 > end || hasLineBreak(open, close)) {
+                left = open + 2;
+                continue;
+            }
+
+            if (open > start) add(TemplateProgram.OP_TEXT, start, open, null);
+            add(TemplateProgram.OP_VALUE, 0, 0, new TemplateProgram.ValuePath(false, src.substring(open + 2, close)));
+            start = left = close + 2;
+        }
+        if (end > start) add(TemplateProgram.OP_TEXT, start, end, null);
+    }
+
+    /**
+     * Position of the next '{{' at or after `from`, or -1 if there are none.
+     * Ranges are flushed in source order, so the last search is kept rather than scanning to the end of the source each time.
+     */
+    private int nextHole(int from) {
+        if (from < holeFrom || (holeAt >= 0 && holeAt < from)) {
+            holeFrom = from;
+            holeAt = src.indexOf("{{", from);
+        }
+        return holeAt;
+    }
+
+    /** True if there is a line break in the source between the two positions */
+    private boolean hasLineBreak(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == '\r' || c == '\n') return true;
+        }
+        return false;
+    }
+
+    private static byte[] encode(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex); // UTF-8 is always supported
+        }
+    }
+
+    /** True if the range can be read from the source */
+    private boolean validRange(int start, int end) {
+        return start >= 0 && start <= end && end <= src.length();
+    }
+
+    /** Point the jump of a block instruction to the next instruction position */
+    private void jumpHere(int instruction) {
+        flush();
+        left[instruction] = count;
+    }
+
+    /** Add an instruction after any pending mark-up. Returns the instruction position */
+    private int emit(int op, int l, int r, Object arg) {
+        flush();
+        return add(op, l, r, arg);
+    }
+
+    private int add(int op, int l, int r, Object arg) {
+        if (count >= ops.length) {
+            int size = ops.length * 2;
+            ops = Arrays.copyOf(ops, size);
+            left = Arrays.copyOf(left, size);
+            right = Arrays.copyOf(right, size);
+            args = Arrays.copyOf(args, size);
+        }
+        ops[count] = op;
+        left[count] = l;
+        right[count] = r;
+        args[count] = arg;
+        return count++;
+    }
+
+    /** take "&lt;_>", "&lt;_for thing>" etc, and split into parts. Returns the tag name, never null */
+    private static String decomposeTag(String tag, Map<String, String> attributes) {
+        int i = 1;
+        int end = tag.length()-1;
+        StringBuilder name = new StringBuilder();
+        StringBuilder key = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+
+        // get tag
+        for (; i < end; i++){
+            char c = tag.charAt(i);
+            if (c == ' ') break;
+            name.append(c);
+        }
+
+        // get params
+        boolean inQuote = false;
+        boolean hasValue = false;
+        for (; i < end; i++){
+            char c = tag.charAt(i);
+            if (c == '"') inQuote = !inQuote;
+            else if (!inQuote && c == '=') hasValue = true;
+            else if (!inQuote && c == ' ') {
+                addAttribute(hasValue, key, value, attributes);
+                hasValue = false;
+                key.setLength(0);
+                value.setLength(0);
+            } else {
+                if (hasValue) value.append(c);
+                else key.append(c);
+            }
+        }
+
+        addAttribute(hasValue, key, value, attributes);
+        return name.toString();
+    }
+
+    private static void addAttribute(boolean hasValue, StringBuilder key, StringBuilder value, Map<String, String> attributes) {
+        if (key.length() > 0) {
+            if (hasValue) attributes.put(key.toString(), value.toString());
+            else attributes.put(key.toString(), key.toString());
+        }
+    }
+}
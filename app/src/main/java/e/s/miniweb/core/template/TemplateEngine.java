@@ -1,6 +1,6 @@
 package e.s.miniweb.core.template;
 
-import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 import android.webkit.WebResourceRequest;
 
@@ -13,18 +13,47 @@ import java.io.Reader;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import e.s.miniweb.R;
 import e.s.miniweb.core.App;
 import e.s.miniweb.core.AppWebRouter;
+import e.s.miniweb.core.PermissionMask;
 import e.s.miniweb.core.Permissions;
 import e.s.miniweb.core.hotReload.AssetLoader;
+import e.s.miniweb.core.hotReload.HotReloadMonitor;
 
 public class TemplateEngine {
     private static final String TAG = "TemplateEngine";
+
+    // Views parsed at build time. These are static, as there is one archive per APK. See `findPrecompiled`
+    private static final Object archiveLock = new Object();
+    private static boolean archiveRead = false;
+    private static ViewArchive viewArchive;
+
+    /** Most directives kept by `fillBlock`, across all templates */
+    private static final int MAX_FILLED_PROGRAMS = 64;
+    /** Directives with filled holes => compiled program. The least recently used is dropped when full */
+    private static final LinkedHashMap<String, TemplateProgram> filledPrograms = new LinkedHashMap<String, TemplateProgram>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TemplateProgram> eldest) {
+            return size() > MAX_FILLED_PROGRAMS;
+        }
+    };
+
     private final AssetLoader assets;
     private final AppWebRouter router;
 
@@ -40,6 +69,14 @@ public class TemplateEngine {
      * Fill out template, then return the resulting document as a string.
      */
     public TemplateResponse Run(WebMethod controllerAction, String params, WebResourceRequest request) throws Exception {
+        return Run(controllerAction, MapParams(params), request);
+    }
+
+    /**
+     * Call out to the controller with parameters that are already split, get a template and model object.
+     * Fill out template, then return the resulting document as a string.
+     */
+    public TemplateResponse Run(WebMethod controllerAction, Map<String, String> params, WebResourceRequest request) throws Exception {
         // 'Do' the page action.
         // This results in a template and the data to go with it
         TemplateResponse tmpl = getDocTemplate(request, params, controllerAction);
@@ -50,8 +87,30 @@ public class TemplateEngine {
             return tmpl;
         }
 
-        // do the render!
-        tmpl.ResponseBody = transformTemplate(tmpl, null);
+        // do the render! Url views are part of another page, so their permission blocks are not tracked.
+        tmpl.ResponseBody = transformTemplate(tmpl, null, !(request instanceof InternalRequest));
+        return tmpl;
+    }
+
+    /**
+     * Call out to the controller, then render the page into a stream on a background thread.
+     * The stream is closed when the render is complete.
+     * <p>
+     * Redirects are not streamed. The redirect page is rendered into `ResponseBody`,
+     * and nothing is written to the stream.
+     */
+    public TemplateResponse RunStreamed(WebMethod controllerAction, Map<String, String> params, WebResourceRequest request, PageStream stream) throws Exception {
+        TemplateResponse tmpl = getDocTemplate(request, params, controllerAction);
+
+        if (tmpl.RedirectUrl != null) {
+            tmpl.ResponseBody = redirectPage(tmpl);
+            tmpl.RedirectUrl = null;
+            return tmpl;
+        }
+
+        // Load before starting, so a missing view is reported like a normal render
+        CompiledTemplate compiled = loadTemplate(App.str(R.string.path_views) + tmpl.TemplatePath + ".html");
+        startStreamedRender(compiled, tmpl, stream);
         return tmpl;
     }
 
@@ -61,12 +120,8 @@ public class TemplateEngine {
      */
     public String internalTemplate(String name, Object model) {
         try {
-            TemplateResponse tmpl = new TemplateResponse();
-            tmpl.TemplateLines = new ArrayList<>();
-            tmpl.Model = model;
-
-            copyLinesToTemplate(App.str(R.string.path_internal) + name, tmpl);
-            return transformTemplate(tmpl, null);
+            CompiledTemplate compiled = loadTemplate(App.str(R.string.path_internal) + name);
+            return render(compiled, model, null);
         } catch (Exception ex) {
             // don't call the error template. Something might be broken with the apk!
             StringBuilder sb = new StringBuilder();
@@ -82,66 +137,327 @@ public class TemplateEngine {
         }
     }
 
+    /**
+     * Compile every view template in the APK, so that pages render from a warm `TemplateCache`.
+     * Templates are compiled in parallel on a fork-join pool, and this returns when they are all done.
+     * The generated model accessors and view renderers are loaded too.
+     * <p>
+     * This is slow, so call it off the ui thread while the app is starting.
+     * It does nothing during hot-reload, as templates are then read from the emulator host.
+     * @return number of templates compiled
+     */
+    public int WarmUp() {
+        if (HotReloadMonitor.TryLoadFromHost) return 0;
+        long started = SystemClock.elapsedRealtime();
+
+        List<String> paths = new ArrayList<>();
+        try {
+            findTemplates(App.str(R.string.path_views), paths);
+        } catch (IOException ex) {
+            Log.w(TAG, "Could not list view templates for warm-up: " + ex);
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (final String path : paths) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        return loadTemplate(path).Program.renderer != null;
+                    } catch (Exception ex) { // reported again if the view is used
+                        Log.w(TAG, "Warm-up could not compile " + path + ": " + ex);
+                        return null;
+                    }
+                }
+            });
+        }
+
+        int compiled = 0;
+        int generated = 0;
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<Boolean> task : pool.invokeAll(tasks)) {
+                Boolean hasRenderer = task.get();
+                if (hasRenderer == null) continue;
+                compiled++;
+                if (hasRenderer) generated++;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Log.w(TAG, "Template warm-up failed: " + ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        long time = SystemClock.elapsedRealtime() - started;
+        TemplateCache.RecordWarmUp(compiled, time);
+        Log.i(TAG, "Warm-up compiled " + compiled + " of " + paths.size() + " views (" + generated + " with generated renderers, "
+                + ModelAccessors.count() + " model accessors) in " + time + "ms");
+        return compiled;
+    }
+
+    /** Add the asset path of every '.html' file under a folder, which should end with '/' */
+    private void findTemplates(String folder, List<String> found) throws IOException {
+        String[] names = assets.list(folder.substring(0, folder.length() - 1));
+        if (names == null) return;
+
+        for (String name : names) {
+            if (name.endsWith(".html")) found.add(folder + name);
+            else findTemplates(folder + name + "/", found); // files have no children, so this is harmless if it is not a folder
+        }
+    }
+
     //region Render core
 
-    /** This mess is for GC optimisation. It all gets inlined anyway. */
-    static class PageOut {
-        private final StringBuilder out;
-        private final StringBuilder tag;
-        private final StringBuilder key;
-        private final StringBuilder value;
-        public PageOut(){
-            out = new StringBuilder();
-            tag = new StringBuilder();
-            key = new StringBuilder();
-            value = new StringBuilder();
-        }
-        public final void add(String t) {out.append(t);}
-        public final void error(){out.append(App.str(R.string.msg_err_inline));}
-        public final void addRange(String t, int left, int right){out.append(t, left, right);}
-        public final String output(){return out.toString();}
-
-        public final void resetTag() {
-            tag.setLength(0);
-            key.setLength(0);
-            value.setLength(0);
-        }
-
-        public void tagAdd(char c) {tag.append(c);}
-        public String tagStr() {return tag.toString();}
-
-        public void tagAddToMap(boolean hasValue, Map<String, String> attributes) {
-            if (key.length() > 0) {
-                if (hasValue) attributes.put(key.toString(), value.toString());
-                else attributes.put(key.toString(), key.toString());
+    /**
+     * Render a compiled template into a stream, on one of the page render threads.
+     * Any failure during the render is written as an inline error.
+     * The page's permission regions are set once the render is complete. Until then,
+     * `tmpl.StreamedRender` can be waited on. See `RenderPermissionChanges`
+     */
+    private void startStreamedRender(final CompiledTemplate compiled, final TemplateResponse tmpl, final PageStream stream) {
+        tmpl.StreamedRender = pageWorkers.submit(new Runnable() {
+            @Override
+            public void run() {
+                RenderContext context = new RenderContext(stream);
+                context.regions = new ArrayList<>();
+                try {
+                    long version = Permissions.Version();
+                    renderPage(compiled, tmpl.Model, null, context);
+                    PageMetrics.RecordIncludes(tmpl.TemplatePath, context.includes);
+                    tmpl.Regions = new PageRegions(context.regions, version);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Streamed render failed: " + ex);
+                    try {
+                        context.error();
+                    } catch (Exception ignore) {
+                        // reader has gone
+                    }
+                } finally {
+                    context.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Find the compiled view for the response, and render it with the response model.
+     * Permission blocks are marked, so they can be patched later. See `RenderPermissionChanges`
+     */
+    public String transformTemplate(TemplateResponse tmpl, Object cursorItem) throws IOException {
+        return transformTemplate(tmpl, cursorItem, true);
+    }
+
+    /**
+     * Find the compiled view for the response, and render it with the response model.
+     * If `trackRegions` is true, permission blocks are marked and recorded in `tmpl.Regions`
+     */
+    private String transformTemplate(TemplateResponse tmpl, Object cursorItem, boolean trackRegions) throws IOException {
+        CompiledTemplate compiled = loadTemplate(App.str(R.string.path_views) + tmpl.TemplatePath + ".html");
+        RenderContext context = new RenderContext();
+        if (trackRegions) context.regions = new ArrayList<>();
+        long version = Permissions.Version();
+        renderPage(compiled, tmpl.Model, cursorItem, context);
+        PageMetrics.RecordIncludes(tmpl.TemplatePath, context.includes);
+        if (trackRegions) tmpl.Regions = new PageRegions(context.regions, version);
+
+        return context.output();
+    }
+
+    /**
+     * Render again the `&lt;_needs>` blocks of a rendered page whose output would change
+     * with the current session permissions. The controller is not called.
+     * <p>
+     * Returns the new output for each changed region, by region id, in document order.
+     * The output includes the region's markers, with a new id.
+     * Returns null if the page can't be patched this way, and should be rendered again in full.
+     * The page's regions are updated to match the patched page.
+     */
+    public Map<Integer, String> RenderPermissionChanges(TemplateResponse page) {
+        PageRegions rendered = page.Regions;
+        if (rendered == null) rendered = waitForStreamedRender(page);
+        if (rendered == null) return null;
+
+        long version = Permissions.Version();
+        Map<Integer, String> patches = new LinkedHashMap<>();
+        List<PageRegions.Region> next = new ArrayList<>();
+        Set<Integer> replaced = new HashSet<>();
+        for (PageRegions.Region region : rendered.regions) {
+            if (replaced.contains(region.parent)) { // inside a region we have already rendered again
+                replaced.add(region.id);
+                continue;
+            }
+            if (!region.hasChanged(rendered.version)) {
+                next.add(region);
+                continue;
+            }
+            if (region.id == 0 || region.locked) return null; // can't be replaced by itself
+
+            RenderContext context = new RenderContext();
+            context.regions = next;
+            context.openRegion = region.parent;
+            renderRegion(region.program, context, region.item, region.model, region.start);
+
+            patches.put(region.id, context.output());
+            replaced.add(region.id);
+        }
+
+        page.Regions = new PageRegions(next, version);
+        return patches;
+    }
+
+    /**
+     * Run the compiled template program against a model.
+     */
+    private String render(CompiledTemplate compiled, Object model, Object cursorItem) {
+        RenderContext context = new RenderContext();
+        renderInto(compiled, model, cursorItem, context);
+
+        return context.output();
+    }
+
+    /**
+     * Run the compiled template program against a model, adding to existing output.
+     * This is used for both pages and the sub-views inside them.
+     */
+    private void renderInto(CompiledTemplate compiled, Object model, Object cursorItem, RenderContext context) {
+        context.lastBlockWasHidden = false;
+        context.flagRegionStart = -1;
+        execute(compiled.Program, context, cursorItem, model, null, 0, compiled.Program.ops.length);
+    }
+
+    /**
+     * Run the compiled template program for a whole page.
+     * Url views marked `parallel` that are not inside any block are started first, and run alongside the page render.
+     */
+    private void renderPage(CompiledTemplate compiled, Object model, Object cursorItem, RenderContext context) {
+        Future<?>[] partials = startPartials(compiled.Program, model, cursorItem);
+        context.lastBlockWasHidden = false;
+        boolean complete = false;
+        try {
+            execute(compiled.Program, context, cursorItem, model, partials, 0, compiled.Program.ops.length);
+            complete = true;
+        } finally {
+            if (!complete && partials != null) { // render stopped early. Don't wait for views we won't use
+                for (Future<?> partial : partials) partial.cancel(false);
             }
         }
-        public void valueAdd(char c) {value.append(c);}
-        public void keyAdd(char c) {key.append(c);}
     }
 
+    /** Most url views that can render at the same time, across all pages */
+    private static final int PARALLEL_PARTIALS = 4;
     /**
-     * Parse the template into a basic HTML tree.
-     * Walk that tree, doing template replacements where needed.
+     * Most streamed pages that can render at the same time. More are queued.
+     * A render is held while the web view is slow to read its page, and a page the web view drops
+     * without closing holds a thread until `PageStream` gives up on it, so this leaves room for those.
      */
-    public String transformTemplate(TemplateResponse tmpl, Object cursorItem) {
-        StringBuilder test = new StringBuilder();
-        for (String line: tmpl.TemplateLines){
-            test.append(moustacheReplace(tmpl.Model, line));
-            test.append("\r\n");
+    private static final int PARALLEL_PAGES = 8;
+    /** Longest time to wait for a streamed page to finish, before patching its permission blocks */
+    private static final long STREAMED_RENDER_WAIT_MS = 2000;
+
+    /** True on the threads that render url views in parallel */
+    private static final ThreadLocal<boolean[]> isPartialWorker = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
         }
+    };
+
+    private static final ThreadPoolExecutor partialWorkers = createWorkers(PARALLEL_PARTIALS, "PartialRender", true);
+    /** Threads for streamed pages. Pages never wait for each other, so these can't deadlock with the partial workers */
+    private static final ThreadPoolExecutor pageWorkers = createWorkers(PARALLEL_PAGES, "PageRender", false);
+
+    /** A fixed number of daemon threads that stop when idle. `partial` marks the threads in `isPartialWorker` */
+    private static ThreadPoolExecutor createWorkers(int count, final String name, final boolean partial) {
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(count, count,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        isPartialWorker.get()[0] = partial;
+                        task.run();
+                    }
+                }, name);
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
 
-        HNode node = HNode.parse(test.toString());
+    /**
+     * Start rendering the url views listed in the program, in the background.
+     * Returns null if they should be rendered in place instead: if there are fewer
+     * than two, or if this is already a url view being rendered in the background.
+     */
+    private Future<?>[] startPartials(TemplateProgram program, final Object model, final Object cursorItem) {
+        final int[] positions = program.partials;
+        if (positions.length < 2 || isPartialWorker.get()[0]) return null;
+
+        Future<?>[] started = new Future<?>[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            int pc = positions[i];
+            @SuppressWarnings("unchecked") Map<String, String> params = (Map<String, String>) program.args[pc];
+            final boolean fixed = program.left[pc] == 0;
+            final Map<String, String> viewParams = fixed ? params : moustacheReplace(model, params);
+
+            started[i] = partialWorkers.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return renderUrlView(viewParams, fixed, model, cursorItem);
+                }
+            });
+        }
+        return started;
+    }
 
-        lastBlockWasHidden = false;
-        PageOut pageOut = new PageOut();
-        recurseTemplate(node, pageOut, cursorItem, tmpl.Model);
+    /**
+     * Wait for the streamed render of a page to finish, and get its permission regions.
+     * Returns null if the page was not streamed, or did not finish in time.
+     */
+    private static PageRegions waitForStreamedRender(TemplateResponse page) {
+        Future<?> render = page.StreamedRender;
+        if (render == null) return null;
+        try {
+            render.get(STREAMED_RENDER_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception ex) {
+            Log.w(TAG, "Streamed render not ready for permission changes: " + ex);
+            return null;
+        }
+        return page.Regions;
+    }
+
+    /** Wait for a url view started by `startPartials`, and add it to the page */
+    private static void addPartial(Future<?> partial, RenderContext page) {
+        try {
+            page.add((String) partial.get());
+        } catch (ExecutionException ex) {
+            Log.w(TAG, "URL view block failed:" + ex.getCause());
+            page.error();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for url view", ex);
+        }
+    }
 
-        return pageOut.output();
+    /** Replace '{{ var name }}' templates in directive parameters */
+    private static Map<String, String> moustacheReplace(Object model, Map<String, String> params) {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            result.put(param.getKey(), moustacheReplace(model, param.getValue()));
+        }
+        return result;
     }
 
     /** Replace '{{ var name }}' templates */
-    private String moustacheReplace(Object model, String line) {
+    private static String moustacheReplace(Object model, String line) {
         // Hopefully the most common: do nothing.
         if (!line.contains("{{") || !line.contains("}}")) return line;
 
@@ -169,169 +485,310 @@ public class TemplateEngine {
         return sb.toString();
     }
 
-    /** controls 'else' for 'for' and 'needs' */
-    private static boolean lastBlockWasHidden = false;
-
-    /** Recurse through the HNode tree, rendering output and interpreting directives */
-    private void recurseTemplate(HNode node, PageOut page, Object item, Object model){
-        // This method is the largest in the project.
-        // Template directives are never self-closing (i.e. <tag/>). They should not be empty (i.e. <tag></tag>)
-        // Known directives:
-        //
-        //   <_for {path}>{content}</_for>         -- repeat contents for each non-null item in model
-        //   <_else>{content}</_else>              -- show if previous _for did not display
-        //   <_>{path}</_>                         -- insert value from model
-        //   <_needs {perms...}>{content}</_needs> -- show content only if user has at least one of the permissions
-        //   <_view {params...}></_view>           -- inject a sub-view into the page
-        //
-        // Paths
-        //
-        //   a           -->  model.a         (or model.get("a") )
-        //   a.b.c       -->  model.a.b.c
-        //   #           -->  item
-        //   #.x.y       -->  item.x.y
-
-        // Content or recursion?
-        if (!node.isUnderscored && node.children.size() < 1) {
-            // not a container. Slap in contents
-            page.addRange(node.Src, node.srcStart, node.srcEnd + 1);
-        } else {
-            if (node.isUnderscored){
-                // Special things
-                Map<String, String> params = new HashMap<>();
-                String tag = decomposeTag(page, node.Src.substring(node.srcStart, node.contStart), params);
-                switch (tag){
-                    case "_": // plain data lookup
-                    {
-                        String path = node.innerText();
-                        if (Objects.equals(path, "#")) page.add(findField(item, ""));
-                        else if (path.startsWith("#.")) page.add(findField(item, path.substring(2)));
-                        else page.add(findField(model, path));
+    /**
+     * Run a template program, rendering output and interpreting directives.
+     * If `partials` is given, it holds the url views already started for this program.
+     * Instructions from `start` (inclusive) to `end` (exclusive) are run. The range must hold whole blocks.
+     * <p>
+     * If code was generated for the program at build time, that is run instead of the interpreter.
+     */
+    private void execute(TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials, int start, int end) {
+        if (program.renderer != null) ((ViewRenderer) program.renderer).run(this, program, page, item, model, partials, start, end);
+        else interpret(program, page, item, model, partials, start, end);
+    }
+
+    /**
+     * Run a range of a template program in the interpreter. See `execute`.
+     * See `TemplateCompiler` for the directives and how they are lowered.
+     */
+    void interpret(TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials, int start, int end) {
+        final String src = program.Src;
+        final int[] ops = program.ops;
+        final int[] left = program.left;
+        final int[] right = program.right;
+        final Object[] args = program.args;
+
+        // Stack of 'for' blocks we are inside. Iterator is null for blocks that show only once.
+        Iterator<?>[] loopIterators = new Iterator<?>[program.maxDepth];
+        Object[] loopOuterItems = new Object[program.maxDepth];
+        int depth = 0;
+
+        int pc = start;
+        while (pc < end) {
+            switch (ops[pc]) {
+                case TemplateProgram.OP_TEXT:
+                {
+                    page.addLiteral(src, left[pc], right[pc], (byte[]) args[pc]);
+                    pc++;
+                    break;
+                }
+                case TemplateProgram.OP_VALUE: // plain data lookup
+                {
+                    TemplateProgram.ValuePath path = (TemplateProgram.ValuePath) args[pc];
+                    page.add(findField(path.fromItem ? item : model, path.path));
+                    pc++;
+                    break;
+                }
+                case TemplateProgram.OP_FOR:
+                {
+                    page.lastBlockWasHidden = true;
+                    page.flagRegionStart = -1;
+                    TemplateProgram.ValuePath path = (TemplateProgram.ValuePath) args[pc];
+                    if (path == null) {
+                        page.error();
+                        pc = left[pc];
                         break;
                     }
-                    case "_for":
-                    {
-                        lastBlockWasHidden = true;
-                        if (params.isEmpty()) {
-                            page.error();
+
+                    Object items = findFieldObject(path.fromItem ? item : model, path.path);
+                    Iterator<?> iterator = null;
+                    Object first;
+                    if (items instanceof Iterable) { // 'for' item is a list. Repeat contents
+                        iterator = ((Iterable<?>) items).iterator();
+                        if (!iterator.hasNext()) {
+                            pc = left[pc];
                             break;
                         }
-                        String path = params.keySet().iterator().next();
-                        Object items;
-                        if (path.startsWith("#.")) items = findFieldObject(item, path.substring(2));
-                        else items = findFieldObject(model, path);
-                        if (items instanceof Iterable) { // 'for' item is a list. Repeat contents
-                            @SuppressWarnings("rawtypes") Iterable listItems = (Iterable) items;
-                            for (Object subItem : listItems) {
-                                lastBlockWasHidden = false;
-                                for (HNode child : node.children) recurseTemplate(child, page, subItem, model);
-                            }
-                        } else if (items instanceof Boolean) { // 'for' items is bool. Show if true
-                            boolean b = (boolean) items;
-                            if (b) {
-                                lastBlockWasHidden = false;
-                                for (HNode child : node.children) recurseTemplate(child, page, items, model);
-                            }
-                        } else if (items != null) { // something else. Show if not null{
-                            lastBlockWasHidden = false;
-                            for (HNode child : node.children) recurseTemplate(child, page, items, model);
-                        }
-                        break;
-                    }
-                    case "_else":
-                    {
-                        if (lastBlockWasHidden) {
-                            for (HNode child : node.children) recurseTemplate(child, page, item, model);
-                        }
-                        break;
-                    }
-                    case "_needs":
-                    {
-                        String[] required = params.keySet().toArray(new String[0]);
-                        if (required.length > 0 && Permissions.HasAnyPermissions(required)) {
-                            lastBlockWasHidden = false;
-                            for (HNode child : node.children) recurseTemplate(child, page, item, model);
-                        } else {
-                            lastBlockWasHidden = true;
+                        first = iterator.next();
+                    } else if (items instanceof Boolean) { // 'for' items is bool. Show if true
+                        if (!(Boolean) items) {
+                            pc = left[pc];
+                            break;
                         }
+                        first = items;
+                    } else if (items != null) { // something else. Show if not null
+                        first = items;
+                    } else {
+                        pc = left[pc];
                         break;
                     }
-                    case "_view":
-                    {
-                        injectViewBlock(params, model, item, page);
-                        break;
+
+                    loopIterators[depth] = iterator;
+                    loopOuterItems[depth] = item;
+                    depth++;
+
+                    page.lastBlockWasHidden = false;
+                    item = first;
+                    pc++;
+                    break;
+                }
+                case TemplateProgram.OP_LOOP:
+                {
+                    Iterator<?> iterator = loopIterators[depth - 1];
+                    if (iterator != null && iterator.hasNext()) { // go round again with the next item
+                        page.lastBlockWasHidden = false;
+                        page.flagRegionStart = -1;
+                        item = iterator.next();
+                        pc = left[pc];
+                    } else { // done. Back to the outer item
+                        depth--;
+                        item = loopOuterItems[depth];
+                        loopIterators[depth] = null;
+                        loopOuterItems[depth] = null;
+                        pc++;
                     }
-                    default: {
-                        page.error();
-                        Log.w(TAG, "Unknown tag: '" + tag + "'");
+                    break;
+                }
+                case TemplateProgram.OP_ELSE:
+                {
+                    if (page.flagRegionStart >= 0) page.lockFlagRegion();
+                    if (page.lastBlockWasHidden) pc++;
+                    else pc = left[pc];
+                    break;
+                }
+                case TemplateProgram.OP_NEEDS:
+                {
+                    if (page.regions != null && right[pc] > 0) { // mark the block, so it can be patched later
+                        renderRegion(program, page, item, model, pc);
+                        pc = right[pc];
                         break;
                     }
+
+                    if (needsBlock(program, page, item, model, pc)) pc++;
+                    else pc = left[pc];
+                    break;
+                }
+                case TemplateProgram.OP_VIEW:
+                {
+                    viewBlock(program, page, item, model, partials, pc);
+                    pc++;
+                    break;
+                }
+                case TemplateProgram.OP_CACHE:
+                {
+                    if (cacheBlock(program, page, item, model, pc)) pc = left[pc];
+                    else pc++; // render the block as normal
+                    break;
+                }
+                case TemplateProgram.OP_FILL:
+                {
+                    fillBlock(page, item, model, (String) args[pc]);
+                    pc++;
+                    break;
+                }
+                case TemplateProgram.OP_FAIL:
+                {
+                    invalidMarkup(pc);
+                    break;
+                }
+                default: // OP_ERROR, or anything we don't understand
+                {
+                    page.error();
+                    pc++;
+                    break;
                 }
-            } else {// Normal HTML
-                // Opening tag. False for comments, scripts, etc
-                if (node.srcStart < node.contStart) page.addRange(node.Src, node.srcStart, node.contStart);
-                // Recurse each child
-                for (HNode child : node.children) recurseTemplate(child, page, item, model);
-                // Closing tag. False for comments, scripts, etc
-                if (node.contEnd < node.srcEnd) page.addRange(node.Src, node.contEnd + 1, node.srcEnd + 1);
             }
         }
     }
 
-    /** take "<_>", "<_for thing>" etc, and split into parts. Array is always at least 1 element, never null */
-    private static String decomposeTag(PageOut page, String tag, Map<String, String> attributes) {
-        int i = 1;
-        int end = tag.length()-1;
-        page.resetTag();
-
-        // get tag
-        for (; i < end; i++){
-            char c = tag.charAt(i);
-            if (c == ' ') break;
-            page.tagAdd(c);
-        }
-        String tagOut = page.tagStr();
-
-        // get params
-        boolean inQuote = false;
-        boolean hasValue = false;
-        for (; i < end; i++){
-            char c = tag.charAt(i);
-            if (c == '"') inQuote = !inQuote;
-            else if (!inQuote && c == '=') hasValue = true;
-            else if (!inQuote && c == ' ') {
-                page.tagAddToMap(hasValue, attributes);
-                hasValue = false;
-                page.resetTag();
-            } else {
-                if (hasValue) page.valueAdd(c);
-                else page.keyAdd(c);
+
+    /**
+     * Check a `&lt;_needs>` block that is not marked as a region, and set the 'else' state.
+     * Returns true if the block should be shown.
+     */
+    static boolean needsBlock(TemplateProgram program, RenderContext page, Object item, Object model, int pc) {
+        PermissionMask required = (PermissionMask) program.args[pc];
+        boolean visible = Permissions.HasAnyPermissions(required);
+        if (page.regions != null) { // can't be marked. Any change will need a full render
+            page.regions.add(new PageRegions.Region(0, page.openRegion, program, pc, item, model, required, visible));
+            page.flagRegionStart = -1;
+        }
+
+        page.lastBlockWasHidden = !visible;
+        return visible;
+    }
+
+    /**
+     * Output a `&lt;_view>` directive, either from a url view started before the render, or by rendering it now.
+     * Url views are recorded as regions that can't be patched. Their routes and any `&lt;_needs>` blocks
+     * inside them can change with permissions, so any change needs a full render.
+     */
+    void viewBlock(TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials, int pc) {
+        if (page.regions != null && ((Map<?, ?>) program.args[pc]).containsKey("url")) {
+            page.regions.add(new PageRegions.Region(0, page.openRegion, program, pc, item, model, null, true));
+        }
+        if (partials != null && program.right[pc] > 0) { // started before the render
+            addPartial(partials[program.right[pc] - 1], page);
+            return;
+        }
+        @SuppressWarnings("unchecked") Map<String, String> params = (Map<String, String>) program.args[pc];
+        boolean fixed = program.left[pc] == 0;
+        if (!fixed) params = moustacheReplace(model, params);
+        injectViewBlock(params, fixed, model, item, page);
+    }
+
+    /**
+     * Output a `&lt;_cache>` block from the fragment cache, rendering and storing it if needed.
+     * Returns false if the block is not cached, and should be rendered as normal.
+     */
+    boolean cacheBlock(TemplateProgram program, RenderContext page, Object item, Object model, int pc) {
+        TemplateProgram.CacheSpec spec = (TemplateProgram.CacheSpec) program.args[pc];
+        if (spec == null || HotReloadMonitor.TryLoadFromHost) return false;
+
+        if (page.regions != null && program.right[pc] > 0) { // cached output may have permission blocks that can't be patched
+            page.regions.add(new PageRegions.Region(0, page.openRegion, program, pc, item, model, null, true));
+        }
+        renderCached(program, spec, pc + 1, program.left[pc], page, item, model);
+        return true;
+    }
+
+    /**
+     * Output a directive with '{{path}}' holes in its tag. The holes are filled from the page model,
+     * then the directive is compiled and run with the current item.
+     * Compiled directives are kept by their filled mark-up, so the same values are only compiled once.
+     */
+    void fillBlock(RenderContext page, Object item, Object model, String markup) {
+        String source = moustacheReplace(model, markup);
+        TemplateProgram program;
+        synchronized (filledPrograms) {
+            program = filledPrograms.get(source);
+        }
+        if (program == null) {
+            try {
+                program = TemplateCompiler.compileFilled(HTree.parse(source));
+            } catch (RuntimeException ex) {
+                Log.w(TAG, "Directive is invalid after filling holes: '" + source + "': " + ex);
+                page.error();
+                return;
+            }
+            synchronized (filledPrograms) {
+                filledPrograms.put(source, program);
             }
         }
+        execute(program, page, item, model, null, 0, program.ops.length);
+    }
+
+    /** Stop the render, for mark-up that was too broken to lower */
+    static void invalidMarkup(int pc) {
+        throw new IllegalStateException("Template mark-up is invalid near instruction " + pc);
+    }
 
-        page.tagAddToMap(hasValue, attributes);
-        return tagOut;
+    /**
+     * Output a `&lt;_needs>` block between a pair of region markers, and record it in the page's regions.
+     * The region includes any `&lt;_else>` blocks that depend on it. See `TemplateCompiler`
+     */
+    void renderRegion(TemplateProgram program, RenderContext page, Object item, Object model, int pc) {
+        PermissionMask required = (PermissionMask) program.args[pc];
+        boolean visible = Permissions.HasAnyPermissions(required);
+        int id = PageRegions.newId();
+        int index = page.regions.size();
+        page.regions.add(new PageRegions.Region(id, page.openRegion, program, pc, item, model, required, visible));
+
+        int outer = page.openRegion;
+        page.openRegion = id;
+        page.add("<!--_needs:" + id + "-->");
+
+        page.lastBlockWasHidden = !visible;
+        page.flagRegionStart = -1;
+        if (visible) execute(program, page, item, model, null, pc + 1, program.left[pc]);
+        execute(program, page, item, model, null, program.left[pc], program.right[pc]);
+
+        page.add("<!--/_needs:" + id + "-->");
+        page.openRegion = outer;
+
+        // Any 'else' after this point depends on this region
+        page.flagRegionStart = index;
+        page.flagRegionEnd = page.regions.size();
     }
 
+    /**
+     * Output a `&lt;_cache>` block, from the fragment cache if possible.
+     * The key includes the session permissions, so `&lt;_needs>` blocks inside are never shown to the wrong session.
+     * It also includes whether the block before was hidden, as that decides any leading `&lt;_else>`.
+     */
+    private void renderCached(TemplateProgram program, TemplateProgram.CacheSpec spec, int start, int end, RenderContext page, Object item, Object model) {
+        StringBuilder key = new StringBuilder();
+        key.append(spec.id);
+        for (TemplateProgram.ValuePath path : spec.keys) {
+            String value = findField(path.fromItem ? item : model, path.path);
+            key.append('|').append(value.length()).append(':').append(value);
+        }
+        key.append('|').append(Permissions.Version());
+        key.append(page.lastBlockWasHidden ? "|h" : "|s"); // an `<_else>` at the start of the block depends on this
+        String cacheKey = key.toString();
+
+        FragmentCache.Fragment found = FragmentCache.get(cacheKey);
+        if (found == null) {
+            RenderContext body = new RenderContext();
+            body.lastBlockWasHidden = page.lastBlockWasHidden;
+            execute(program, body, item, model, null, start, end);
+            found = new FragmentCache.Fragment(body.output(), body.lastBlockWasHidden, body.includes, spec.timeToLiveMs);
+            FragmentCache.put(cacheKey, found);
+        }
+
+        page.add(found.Output);
+        page.includes += found.Includes;
+        page.lastBlockWasHidden = found.LastBlockWasHidden;
+    }
 
     /**
-     * Handle sub-view blocks by calling back out through the template system and injecting results into string builder.
-     * Returns number of extra lines consumed from the input template
-     *
+     * Handle sub-view blocks by calling back out through the template system and injecting results into the page.
+     * `fixed` is true if the parameters are the same on every render (no `{{...}}` holes).
      */
-    private void injectViewBlock(Map<String, String> params, Object model, Object cursorItem, PageOut page) {
-        if (params.containsKey("url")) { // should do a GET to this URL
+    private void injectViewBlock(Map<String, String> params, boolean fixed, Object model, Object cursorItem, RenderContext page) {
+        if (params.containsKey("url")) { // call the controller for this URL directly
             try {
-                Uri target = Uri.parse(params.get("url"));
-                if (params.containsKey("model")) { // inject model into params?
-                    Object viewModel = getViewModelObjectByPath(model, cursorItem, params);
-                    if (viewModel != null) {
-                        target = mapObjectToUrlQuery(target, viewModel);
-                    }
-                }
-                WebResourceRequest request = new InternalRequest(target);
-                String response = router.getControllerResponse(request, true);
-                page.add(response);
+                page.add(renderUrlView(params, fixed, model, cursorItem));
                 return;
             } catch (Exception ex) {
                 Log.w(TAG, "URL view block failed:" + ex);
@@ -351,15 +808,14 @@ public class TemplateEngine {
         // If we can't find anything, we will pass in `null`
         Object viewModel = getViewModelObjectByPath(model, cursorItem, params);
 
-        // Try to load the view into a new template
+        // Render the cached view straight into the page
         String viewPath = App.str(R.string.path_views) + params.get("path");
         try {
-            TemplateResponse viewTmpl = new TemplateResponse();
-            viewTmpl.TemplateLines = new ArrayList<>();
-            viewTmpl.Model = viewModel;
+            CompiledTemplate compiled = loadTemplate(viewPath);
+            if (HotReloadMonitor.TryLoadFromHost) HotReloadMonitor.AddHotReloadAsset(viewPath);
 
-            copyLinesToTemplate(viewPath, viewTmpl);
-            page.add(transformTemplate(viewTmpl, null));
+            page.includes++;
+            renderInto(compiled, viewModel, null, page);
         } catch (FileNotFoundException fex) {
             Log.w(TAG, "Failed to load view! TargetFile=" + viewPath);
             page.error();
@@ -370,6 +826,26 @@ public class TemplateEngine {
     }
 
 
+    /**
+     * Render a `<_view url=...>` block by calling its controller method directly.
+     * Fields of the view model, if any, are added to the url parameters.
+     */
+    private String renderUrlView(Map<String, String> params, boolean fixed, Object model, Object cursorItem) throws Exception {
+        String url = params.get("url");
+        ViewUrl target = fixed ? ViewUrl.of(url) : ViewUrl.parse(url);
+        Map<String, String> query = target.paramsCopy();
+
+        Object viewModel = null;
+        if (params.containsKey("model")) { // inject model into params?
+            viewModel = getViewModelObjectByPath(model, cursorItem, params);
+            if (viewModel != null) {
+                query.putAll(convertObjectToMap(viewModel));
+            }
+        }
+        WebResourceRequest request = new InternalRequest(url, viewModel);
+        return router.getPartialResponse(target.Controller, target.Method, query, request);
+    }
+
     /**
      * Render a page that causes a redirect
      */
@@ -387,26 +863,21 @@ public class TemplateEngine {
         }
     }
 
-    /**
-     * Try to map the fields of an object into a url by appending query parameters
-     */
-    private static Uri mapObjectToUrlQuery(Uri target, Object viewModel) {
-        Uri.Builder builder = target.buildUpon();
-        Map<String, String> modelAsMap = convertObjectToMap(viewModel);
-        for (String key : modelAsMap.keySet()) {
-            builder = builder.appendQueryParameter(key, modelAsMap.get(key));
-        }
-        target = builder.build();
-        return target;
-    }
-
     /**
      * extract public fields to a hash map
      */
     private static Map<String, String> convertObjectToMap(Object obj) {
         Map<String, String> map = new HashMap<>();
 
-        if (obj != null) {
+        ModelAccessor accessor = obj == null ? null : ModelAccessors.forClass(obj.getClass());
+        if (accessor != null) {
+            for (String name : accessor.fieldNames()) {
+                Object fieldVal = accessor.read(obj, name);
+                if (fieldVal != null && fieldVal != ModelAccessor.MISSING) {
+                    map.put(name, fieldVal.toString());
+                }
+            }
+        } else if (obj != null) {
             Field[] fields = obj.getClass().getFields();
             for (Field f : fields) {
                 if (f == null) continue;
@@ -464,143 +935,142 @@ public class TemplateEngine {
     }
 
     /**
-     * Hunts though object hierarchies for values.
-     * The simplest and fastest path is to have a single field name.
+     * find a named field in the given object. The name can be a dotted path (e.g. "parent.child.item")
+     * This is like `findField`, but returns an object instead of a string.
      */
-    private static Object searchForField(Object model, String name) throws NoSuchFieldException, IllegalAccessException {
-        if (!name.contains(".")) { // simple case
-            if (model instanceof Map) {
-                try {
-                    Map<?, ?> map = (Map<?, ?>) model;
-                    return map.get(name);
-                } catch (Exception ex) {
-                    Log.w(TAG, "Failed to find '" + name + "' in map");
-                    return null;
-                }
-            } else {
-                return model.getClass().getField(name).get(model);
-            }
-        }
-
-        // We have a dotted path. Split the path up, and step through each element.
-        Object src = model;
-        String[] pathBits = name.split("[.]");
-
-        // walk down the chain
-        for (String bit : pathBits) {
-            if (src == null) return null;
-
-            if (looksLikeInt(bit)) { // index into iterable, or fail
-                int idx = Integer.parseInt(bit);
-                src = getIterableIndexed(src, idx);
-            } else if (src instanceof Map) { // try to find a value by map
-                try {
-                    Map<?, ?> map = (Map<?, ?>) src;
-                    if (map.containsKey(bit)) src = map.get(bit);
-                } catch (Exception ex) {
-                    Log.w(TAG, "Failed to find '" + bit + "' in map");
-                    return null;
-                }
-            } else { // get field by name, or fail
-                src = src.getClass().getField(bit).get(src);
-            }
-        }
-        return src;
+    private static Object findFieldObject(Object model, String name) {
+        if (name == null) return null;
+        return findFieldObject(model, ModelPath.of(name));
     }
 
     /**
-     * try to read the value of an object at the given index. Returns null on failure
+     * find a field in the given object by a cached path.
+     * This is like `findField`, but returns an object instead of a string.
      */
-    @SuppressWarnings("rawtypes")
-    private static Object getIterableIndexed(Object src, int idx) {
-        // coding in Java feels more old fashioned than C.
-        try {
-            if (src == null || idx < 0) return null;
-            Iterable items = (Iterable) src;
-            Iterator iterator = items.iterator();
+    static Object findFieldObject(Object model, ModelPath path) {
+        if (model == null) return null;
 
-            Object current = iterator.next();
-            for (int counter = 0; counter < idx; counter++)
-                current = iterator.next();
+        if (path.Path.equals("")) return model; // special case <_for> -> use the model directly
 
-            return current;
-        } catch (Exception ex) {
-            return null;
-        }
-    }
-
-    /**
-     * Returns true if the string contains only ascii numbers
-     */
-    private static boolean looksLikeInt(String str) {
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            if (c < '0' || c > '9') return false;
-        }
-        return true;
+        Object value = path.read(model);
+        if (value == ModelPath.MISSING) return null;
+        return value;
     }
 
     /**
      * find a named field in the given object. The name can be a dotted path (e.g. "parent.child.item")
-     * This is like `findField`, but returns an object instead of a string.
+     * This is like `findFieldObject`, but returns a string instead of an object.
      */
-    private static Object findFieldObject(Object model, String name) {
-        try {
-            if (model == null) return null;
-            if (name == null) return null;
-
-            if (name.equals("")) return model; // special case <_for> -> use the model directly
-
-            return searchForField(model, name);
-        } catch (NoSuchFieldException | IllegalAccessException ignore) {
-            return null;
-        }
+    private static String findField(Object model, String name) {
+        if (name == null) return "";
+        return findField(model, ModelPath.of(name));
     }
 
     /**
-     * find a named field in the given object. The name can be a dotted path (e.g. "parent.child.item")
+     * find a field in the given object by a cached path.
      * This is like `findFieldObject`, but returns a string instead of an object.
      */
-    private static String findField(Object model, String name) {
+    static String findField(Object model, ModelPath path) {
         try {
             if (model == null) return "";
-            if (name == null) return "";
 
-            if (name.equals("")) { // special case: <_></_> : output the model as a string
+            if (path.Path.equals("")) { // special case: <_></_> : output the model as a string
                 return model.toString();
             }
 
-            Object value = searchForField(model, name);
+            Object value = path.read(model);
 
+            if (value == ModelPath.MISSING) return "[" + path.Path + "]";
             if (value == null) return "";
             return value.toString();
         } catch (Exception ex) {
-            return "[" + name + "]";
+            return "[" + path.Path + "]";
         }
     }
 
     /**
      * Generate and populate a TemplateResponse for the given web request
      */
-    private TemplateResponse getDocTemplate(WebResourceRequest request, String params, WebMethod controllerMethod) throws Exception {
+    private TemplateResponse getDocTemplate(WebResourceRequest request, Map<String, String> params, WebMethod controllerMethod) throws Exception {
 
         // This is the call to the controller method:
-        TemplateResponse resp = controllerMethod.RunControllerMethod(mapParams(params), request);
+        TemplateResponse resp = controllerMethod.RunControllerMethod(params, request);
 
         if (resp == null) throw new Exception("Method gave a bad result");
-        if (resp.RedirectUrl != null) return resp;
-
-        resp.TemplateLines = new ArrayList<>();
-        copyLinesToTemplate(App.str(R.string.path_views) + resp.TemplatePath + ".html", resp);
 
         return resp;
     }
 
+    /**
+     * Get a compiled template by file name.
+     * The template file is only read and parsed if it is not already in the `TemplateCache`.
+     * If a `ViewRenderer` was generated for the template, it is attached to the program.
+     */
+    private CompiledTemplate loadTemplate(String fileName) throws IOException {
+        CompiledTemplate compiled = TemplateCache.Get(fileName);
+        if (compiled != null) return compiled;
+
+        HTree tree = findPrecompiled(fileName);
+        if (tree != null) compiled = CompiledTemplate.compile(fileName, tree);
+        else compiled = CompiledTemplate.compile(fileName, readTemplateLines(fileName));
+
+        // Hot-reloaded sources may have changed since the renderers were generated
+        if (!HotReloadMonitor.TryLoadFromHost) compiled.Program.renderer = ViewRenderers.forTemplate(fileName, compiled.Program);
+        TemplateCache.Put(fileName, compiled);
+        return compiled;
+    }
+
+    /**
+     * Get a template that was parsed at build time, or null if it should be read from its source.
+     * During hot-reload, templates are always read from the source, as they may have changed since the build.
+     */
+    private HTree findPrecompiled(String fileName) throws IOException {
+        if (HotReloadMonitor.TryLoadFromHost) return null;
+
+        ViewArchive archive;
+        synchronized (archiveLock) {
+            if (!archiveRead) {
+                archiveRead = true;
+                viewArchive = readViewArchive();
+            }
+            archive = viewArchive;
+        }
+        if (archive == null) return null;
+
+        // Like `readTemplateLines`, the name can be given without the '.html' ending
+        HTree tree = archive.find(fileName);
+        if (tree == null) tree = archive.find(fileName + ".html");
+        return tree;
+    }
+
+    /** Read the archive of precompiled views from the APK. Returns null if it is missing or can't be used */
+    private ViewArchive readViewArchive() {
+        InputStream is = null;
+        try {
+            is = assets.open(ViewArchive.ASSET);
+            return ViewArchive.Read(is);
+        } catch (FileNotFoundException fex) {
+            Log.i(TAG, "No precompiled views. Templates will be parsed on first use");
+            return null;
+        } catch (Exception ex) {
+            Log.w(TAG, "Can't read precompiled views. Templates will be parsed on first use. Error=" + ex);
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignore) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
     /**
      * read template file into an array of lines
      */
-    public void copyLinesToTemplate(String fileName, TemplateResponse resp) throws IOException {
-        resp.TemplateLines.clear();
+    private List<String> readTemplateLines(String fileName) throws IOException {
+        List<String> lines = new ArrayList<>();
 
         InputStream is = null;
         try {
@@ -617,7 +1087,7 @@ public class TemplateEngine {
             try {
                 // While the BufferedReader readLine is not null
                 while ((readLine = br.readLine()) != null) {
-                    resp.TemplateLines.add(readLine);
+                    lines.add(readLine);
                 }
 
                 // Close the InputStream and BufferedReader
@@ -631,23 +1101,16 @@ public class TemplateEngine {
         } finally {
             if (is != null) is.close();
         }
+        return lines;
     }
 
     /**
-     * split url query parameters into a hash map
+     * split url query parameters into a map, decoding them as they are read.
+     * Use the encoded query (`Uri.getEncodedQuery()`), so escaped '&' and '=' in values are kept.
+     * If a parameter is repeated, the last value is used. See `QueryParams.GetAll` for all values.
      */
-    private Map<String, String> mapParams(String params) {
-        Map<String, String> result = new HashMap<>();
-        if (params == null) return result;
-        String[] parts = params.split("([&]|[?])");
-        for (String part : parts) {
-            if (part == null || part.equals("")) continue;
-            String[] sides = part.split("=", 2);
-
-            if (sides.length == 1) result.put(sides[0], sides[0]);
-            else result.put(sides[0], sides[1]);
-        }
-        return result;
+    public static QueryParams MapParams(String params) {
+        return new QueryParams(params);
     }
     //endregion
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package e.s.miniweb.core.template;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a model class to have a template accessor generated at build time.
+ * <p>
+ * The `template-processor` module writes a `ModelAccessor` for each marked class,
+ * which reads the public fields of the model directly. The template engine uses these
+ * instead of reflection, and they keep working when release builds rename fields.
+ * Models without this annotation are still read by reflection.
+ * <p>
+ * The marked class must not be private.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface TemplateModel {
+}
@@ -0,0 +1,139 @@
+package e.s.miniweb.core.template;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A template lowered to a flat list of instructions, ready for `TemplateEngine` to run.
+ * <p>
+ * Each instruction is an opcode with two int arguments and an optional object argument.
+ * These are stored in parallel arrays, indexed by instruction position.
+ * All directive parameters are resolved when the program is built, so running
+ * the program does no parsing.
+ */
+final class TemplateProgram {
+    /** Copy `Src` from `left` (inclusive) to `right` (exclusive) to the output. `arg` is the same text, encoded as UTF-8 */
+    static final int OP_TEXT = 0;
+    /** Output the value found at a path. `arg` is a `ValuePath` */
+    static final int OP_VALUE = 1;
+    /** Start a repeated block. `arg` is a `ValuePath`, or null if the directive was invalid. `left` is the position after the block */
+    static final int OP_FOR = 2;
+    /** End of a repeated block. `left` is the position of the first instruction in the block */
+    static final int OP_LOOP = 3;
+    /** Start of an 'else' block. `left` is the position after the block */
+    static final int OP_ELSE = 4;
+    /**
+     * Start of a permission gated block. `arg` is a `PermissionMask`. `left` is the position after the block.
+     * `right` is the end of the region marked for patching, after any 'else' blocks that depend on this one.
+     * It is zero if the block can't be marked.
+     */
+    static final int OP_NEEDS = 5;
+    /**
+     * Inject a sub-view. `arg` is the Map of directive parameters. `left` is 1 if parameters have '{{path}}' holes to fill.
+     * `right` is the position in `partials` plus one, or zero if the view is not listed there.
+     */
+    static final int OP_VIEW = 6;
+    /** Output an inline error marker */
+    static final int OP_ERROR = 7;
+    /** Stop rendering with an exception. Used where the template mark-up is too broken to lower */
+    static final int OP_FAIL = 8;
+    /**
+     * Start of a block whose output is cached. `arg` is a `CacheSpec`, or null if the block should not be cached. `left` is the position after the block.
+     * `right` is 1 if there are permission gated blocks or sub-views inside.
+     */
+    static final int OP_CACHE = 9;
+    /**
+     * A directive with '{{path}}' holes in its tag. `arg` is the mark-up of the directive and its contents.
+     * The holes are filled from the page model, then the directive is compiled and run.
+     */
+    static final int OP_FILL = 10;
+
+    /** Template source that `OP_TEXT` ranges refer to */
+    final String Src;
+
+    final int[] ops;
+    final int[] left;
+    final int[] right;
+    final Object[] args;
+
+    /** Deepest nesting of `OP_FOR` blocks. Used to size the loop stack */
+    final int maxDepth;
+
+    /** Positions of the `OP_VIEW` instructions for url views that are not inside any block, in document order */
+    final int[] partials;
+
+    /**
+     * A `ViewRenderer` generated from this program at build time, or null if the program is interpreted.
+     * Set before the program is shared. This is not typed, as programs are also built by the template-compiler tool, which has no engine.
+     */
+    Object renderer;
+
+    TemplateProgram(String src, int[] ops, int[] left, int[] right, Object[] args, int maxDepth, int[] partials) {
+        Src = src;
+        this.ops = ops;
+        this.left = left;
+        this.right = right;
+        this.args = args;
+        this.maxDepth = maxDepth;
+        this.partials = partials;
+    }
+
+    /** FNV-1a constants, for `fingerprint()` */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * A 64-bit FNV-1a hash of the source, as UTF-8, and the instructions.
+     * Generated renderers are only used with a program that has the same fingerprint as the one they were generated from.
+     */
+    long fingerprint() {
+        long hash = FNV_OFFSET;
+        for (byte b : Src.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        for (int i = 0; i < ops.length; i++) {
+            hash = fnv(hash, ops[i]);
+            hash = fnv(hash, left[i]);
+            hash = fnv(hash, right[i]);
+        }
+        return hash;
+    }
+
+    /** Add the four bytes of an int to an FNV-1a hash, low byte first */
+    private static long fnv(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** A path into either the page model, or the current 'for' item */
+    static final class ValuePath {
+        /** if true, path is read from the current item. Otherwise, path is read from the page model */
+        final boolean fromItem;
+        /** dotted path to read. Empty string means the object itself */
+        final ModelPath path;
+
+        ValuePath(boolean fromItem, String path) {
+            this.fromItem = fromItem;
+            this.path = ModelPath.of(path);
+        }
+    }
+
+    /** Settings for a `&lt;_cache>` block */
+    static final class CacheSpec {
+        private static final AtomicInteger nextId = new AtomicInteger();
+
+        /** Identifies this block among all compiled templates. A recompiled template gets new ids */
+        final int id;
+        /** Model values that make up the cache key */
+        final ValuePath[] keys;
+        final long timeToLiveMs;
+
+        CacheSpec(ValuePath[] keys, long timeToLiveMs) {
+            this.id = nextId.incrementAndGet();
+            this.keys = keys;
+            this.timeToLiveMs = timeToLiveMs;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package e.s.miniweb.core.template;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * The path to a document template, and the model data to go in it, and some details for the hot-reload system.
@@ -20,33 +19,19 @@ public class TemplateResponse {
     // The page markup generated by template engine
     public String ResponseBody;
 
-    // Internal
-    public List<String> TemplateLines;
-
     // These are used to match a refresh to a hot-reload
     public String Controller;
     public String Method;
     public String Params;
     public String LastPageChangeDate;
 
-    /**
-     * Duplicate lines in a template.
-     * Used for repeating {for:} blocks
-     */
-    public TemplateResponse cloneRange(int startIndex, int endIndex) {
-        TemplateResponse result = new TemplateResponse();
-
-        result.Model = Model;
-        result.TemplatePath = TemplatePath;
-        result.RedirectUrl = RedirectUrl;
-
-        if (endIndex >= TemplateLines.size()) endIndex = TemplateLines.size() - 1;
+    // Permission gated blocks in the rendered page. Null if the page can't be patched,
+    // or if it is still being streamed (see `StreamedRender`).
+    public volatile PageRegions Regions;
 
-        result.TemplateLines = new ArrayList<>();
-        for(int i = startIndex; i <= endIndex; i++) {
-            result.TemplateLines.add(TemplateLines.get(i));
-        }
+    // Render of a streamed page, set before the page is handed out. `Regions` is set when it completes.
+    public volatile Future<?> StreamedRender;
 
-        return result;
-    }
+    // Last markup rendered for this page, used to patch a hot-reload. Null if the page was streamed.
+    public volatile String LastRenderedBody;
 }
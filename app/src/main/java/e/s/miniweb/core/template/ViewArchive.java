@@ -0,0 +1,211 @@
+package e.s.miniweb.core.template;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * View templates parsed at build time, packed into a single asset file.
+ * <p>
+ * The `compileViews` Gradle task parses every template and writes its `HTree` here, so the
+ * device only has to read the arrays back. The file is read on first use, and each template
+ * is only decoded when it is first requested.
+ * <p>
+ * Layout, with numbers big-endian:
+ * <pre>
+ *   int magic, int version, int template count
+ *   for each template:
+ *     UTF asset path, int length of the entry in bytes
+ *     int source length, UTF-8 source bytes
+ *     int node count, then for each node:
+ *       byte type, plus `HAS_CHILDREN` if the next node is its first child
+ *       varint srcStart, as the change from the previous node
+ *       varint contStart, contEnd, srcEnd, as the change from srcStart
+ *       varint distance to the next sibling, or zero
+ * </pre>
+ * Ranges are nearly always close to each other, so most nodes take 6 or 7 bytes.
+ * This has no Android dependencies, as it is also run at build time.
+ */
+public final class ViewArchive {
+    /** Path of the archive in the APK assets */
+    public static final String ASSET = "compiled/views.bin";
+
+    private static final int MAGIC = 0x4D57_5654; // "MWVT"
+    /** Change this if the layout or the parser output changes */
+    private static final int VERSION = 1;
+    /** Flag on the node type. Child nodes always come straight after their parent */
+    private static final int HAS_CHILDREN = 0x80;
+
+    private final byte[] data;
+    /** Asset path => offset of the entry in `data` */
+    private final Map<String, Integer> entries;
+
+    private ViewArchive(byte[] data, Map<String, Integer> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Parse template files and write them as an archive.
+     * Templates that can't be parsed are left out, so they fail on the device the same way they would without an archive.
+     * @param templates asset path => lines of the template file. Written in the map's order.
+     * @return asset paths of the templates that were left out
+     */
+    public static List<String> Write(Map<String, List<String>> templates, OutputStream out) throws IOException {
+        Map<String, byte[]> written = new LinkedHashMap<>();
+        List<String> failed = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (Map.Entry<String, List<String>> template : templates.entrySet()) {
+            HTree tree;
+            try {
+                tree = HTree.parseLines(template.getValue());
+            } catch (RuntimeException ex) {
+                failed.add(template.getKey());
+                continue;
+            }
+            buffer.reset();
+            writeTree(tree, new DataOutputStream(buffer));
+            written.put(template.getKey(), buffer.toByteArray());
+        }
+
+        DataOutputStream file = new DataOutputStream(out);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        file.writeInt(written.size());
+        for (Map.Entry<String, byte[]> entry : written.entrySet()) {
+            file.writeUTF(entry.getKey());
+            file.writeInt(entry.getValue().length);
+            file.write(entry.getValue());
+        }
+        file.flush();
+        return failed;
+    }
+
+    /** Read the index of an archive. Throws if the stream is not an archive of this version */
+    static ViewArchive Read(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) > 0) buffer.write(chunk, 0, read);
+        byte[] data = buffer.toByteArray();
+
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream file = new DataInputStream(bytes);
+        if (file.readInt() != MAGIC) throw new IOException("Not a view archive");
+        int version = file.readInt();
+        if (version != VERSION) throw new IOException("View archive is version " + version + ", expected " + VERSION);
+
+        int count = file.readInt();
+        Map<String, Integer> entries = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String path = file.readUTF();
+            int length = file.readInt();
+            entries.put(path, data.length - bytes.available());
+            if (file.skipBytes(length) != length) throw new IOException("View archive is truncated");
+        }
+        return new ViewArchive(data, entries);
+    }
+
+    /** Get the parsed template for an asset path, or null if it is not in the archive */
+    HTree find(String path) throws IOException {
+        Integer offset = entries.get(path);
+        if (offset == null) return null;
+
+        DataInputStream entry = new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+        byte[] src = new byte[entry.readInt()];
+        entry.readFully(src);
+
+        int count = entry.readInt();
+        int[] type = new int[count];
+        int[] srcStart = new int[count];
+        int[] contStart = new int[count];
+        int[] contEnd = new int[count];
+        int[] srcEnd = new int[count];
+        int[] firstChild = new int[count];
+        int[] nextSibling = new int[count];
+
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int flags = entry.readUnsignedByte();
+            type[i] = flags & ~HAS_CHILDREN;
+            firstChild[i] = (flags & HAS_CHILDREN) != 0 ? i + 1 : HTree.NONE;
+
+            int start = last + readSigned(entry);
+            srcStart[i] = last = start;
+            contStart[i] = start + readSigned(entry);
+            contEnd[i] = start + readSigned(entry);
+            srcEnd[i] = start + readSigned(entry);
+
+            int sibling = readVarInt(entry);
+            nextSibling[i] = sibling == 0 ? HTree.NONE : i + sibling;
+        }
+
+        return new HTree(new String(src, "UTF-8"), count, type, srcStart, contStart, contEnd, srcEnd, firstChild, nextSibling);
+    }
+
+    private static void writeTree(HTree tree, DataOutputStream out) throws IOException {
+        byte[] src = tree.Src.getBytes("UTF-8");
+        out.writeInt(src.length);
+        out.write(src);
+
+        int count = tree.count;
+        out.writeInt(count);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int flags = tree.type[i];
+            if (tree.firstChild[i] != HTree.NONE) {
+                if (tree.firstChild[i] != i + 1) throw new IllegalStateException("Child nodes must follow their parent");
+                flags |= HAS_CHILDREN;
+            }
+            out.writeByte(flags);
+
+            int start = tree.srcStart[i];
+            writeSigned(out, start - last);
+            last = start;
+            writeSigned(out, tree.contStart[i] - start);
+            writeSigned(out, tree.contEnd[i] - start);
+            writeSigned(out, tree.srcEnd[i] - start);
+
+            int sibling = tree.nextSibling[i];
+            writeVarInt(out, sibling == HTree.NONE ? 0 : sibling - i);
+        }
+    }
+
+    /** Write a number that may be negative. Small numbers either side of zero take one byte */
+    private static void writeSigned(DataOutputStream out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readSigned(DataInputStream in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Write a non-negative number in 7-bit groups, lowest first. The top bit is set on all but the last byte */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Bad number in view archive");
+    }
+}
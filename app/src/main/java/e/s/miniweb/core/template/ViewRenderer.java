@@ -0,0 +1,28 @@
+package e.s.miniweb.core.template;
+
+import java.util.concurrent.Future;
+
+/**
+ * A view template compiled to Java at build time, so it renders without the interpreter.
+ * <p>
+ * The `generateViewRenderers` Gradle task writes one subclass per view, with a method for each block
+ * in the view's `TemplateProgram`. Text, values, loops and permission checks are plain Java statements.
+ * Sub-views, cached blocks and marked regions call back into `TemplateEngine`, so they work exactly as when interpreted.
+ * <p>
+ * A renderer is only used with a program that has the same `fingerprint()` as the one it was generated from.
+ * See `ViewRenderers`
+ */
+abstract class ViewRenderer {
+    /** `TemplateProgram.fingerprint()` of the program this was generated from */
+    final long fingerprint;
+
+    protected ViewRenderer(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Run instructions `start` (inclusive) to `end` (exclusive) of the program.
+     * Ranges that were not generated are passed to `TemplateEngine.interpret`
+     */
+    abstract void run(TemplateEngine engine, TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials, int start, int end);
+}
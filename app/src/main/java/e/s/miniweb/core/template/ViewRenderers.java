@@ -0,0 +1,52 @@
+package e.s.miniweb.core.template;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds generated `ViewRenderer`s for view templates.
+ * <p>
+ * The `generateViewRenderers` task writes a `ViewRendererRegistry` class listing every
+ * renderer it generated, keyed by asset path. This is loaded once. If it does not exist,
+ * all templates are interpreted.
+ */
+final class ViewRenderers {
+    private static final String TAG = "ViewRenderers";
+    private static final String REGISTRY = "e.s.miniweb.core.template.ViewRendererRegistry";
+
+    /** Not changed after loading, so can be read from any thread */
+    private static final Map<String, ViewRenderer> renderers = load();
+
+    /**
+     * Get the generated renderer for a template, or null if there is none.
+     * A renderer generated from a different version of the template is not returned.
+     */
+    static ViewRenderer forTemplate(String path, TemplateProgram program) {
+        // Like `TemplateEngine.readTemplateLines`, the name can be given without the '.html' ending
+        ViewRenderer renderer = renderers.get(path);
+        if (renderer == null) renderer = renderers.get(path + ".html");
+        if (renderer == null) return null;
+
+        if (renderer.fingerprint != program.fingerprint()) {
+            Log.w(TAG, "Generated renderer for " + path + " does not match the template. It will be interpreted.");
+            return null;
+        }
+        return renderer;
+    }
+
+    private static Map<String, ViewRenderer> load() {
+        Map<String, ViewRenderer> found = new HashMap<>();
+        try {
+            Class<?> registry = Class.forName(REGISTRY);
+            registry.getMethod("RegisterAll", Map.class).invoke(null, found);
+            Log.i(TAG, "Loaded " + found.size() + " generated view renderers");
+        } catch (ClassNotFoundException ignore) {
+            // Generator not run. Templates will be interpreted.
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to load generated view renderers: " + ex);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,58 @@
+package e.s.miniweb.core.template;
+
+import android.net.Uri;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The target of a `<_view url=...>` block, split into controller, method, and parameters.
+ * <p>
+ * Urls written directly in templates are split once and cached by their text.
+ * Urls filled in from `{{...}}` holes are split each time, and not cached.
+ */
+final class ViewUrl {
+    private static final ConcurrentHashMap<String, ViewUrl> urls = new ConcurrentHashMap<>();
+
+    /** Original url text */
+    final String Url;
+    final String Controller;
+    final String Method;
+
+    /** Query parameters given in the url. This is shared, so copy with `paramsCopy` before changing */
+    private final QueryParams params;
+
+    private ViewUrl(String url) {
+        Uri target = Uri.parse(url);
+        Url = url;
+        Controller = target.getHost();
+
+        String method = target.getPath();
+        if (method == null) method = "";
+        if (method.startsWith("/")) method = method.substring(1);
+        if (method.isEmpty()) method = "index";
+        Method = method;
+
+        params = TemplateEngine.MapParams(target.getEncodedQuery());
+    }
+
+    /** Get the cached target for a url that does not change between renders */
+    static ViewUrl of(String url) {
+        ViewUrl found = urls.get(url);
+        if (found != null) return found;
+
+        found = new ViewUrl(url);
+        ViewUrl existing = urls.putIfAbsent(url, found);
+        return existing == null ? found : existing;
+    }
+
+    /** Split a url without caching it */
+    static ViewUrl parse(String url) {
+        return new ViewUrl(url);
+    }
+
+    /** A new map of the url parameters, which the caller can add to */
+    Map<String, String> paramsCopy() {
+        return new QueryParams(params);
+    }
+}
@@ -1,5 +1,8 @@
 package e.s.miniweb.models;
 
+import e.s.miniweb.core.template.TemplateModel;
+
+@TemplateModel
 @SuppressWarnings("unused")
 public class FullNameModel {
     public String Name;
@@ -3,10 +3,14 @@ package e.s.miniweb.models;
 import java.util.ArrayList;
 import java.util.List;
 
+import e.s.miniweb.core.template.TemplateModel;
+
 // An example model file.
 // Models should always be under the `/models` path, or the `/controllers` path.
-// Any models not in these paths may break if the app is built in release mode.
+// Any models not in these paths may break if the app is built in release mode,
+// unless they are marked with `@TemplateModel`.
 
+@TemplateModel
 public class NestedObjectModel {
     public final List<String> children;
     public final String name;
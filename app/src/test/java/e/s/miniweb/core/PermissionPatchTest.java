@@ -0,0 +1,130 @@
+package e.s.miniweb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.Map;
+
+import e.s.miniweb.core.hotReload.AssetLoader;
+import e.s.miniweb.core.hotReload.HotReloadMonitor;
+import e.s.miniweb.core.template.TemplateCache;
+
+/**
+ * Rendering a page, then patching its `&lt;_needs>` blocks when the session permissions change,
+ * through `AppWebRouter.PermissionPatchScript`.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PermissionPatchTest {
+    private AppWebRouter router;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        router = new AppWebRouter(new AssetLoader(context.getAssets()), null);
+        Permissions.ClearPermissions();
+        TemplateCache.Clear();
+    }
+
+    @After
+    public void tearDown() {
+        Permissions.ClearPermissions();
+        HotReloadMonitor.lastPageRendered = null;
+        TemplateCache.Clear();
+    }
+
+    @Test
+    public void changedBlocksArePatchedIntoThePage() throws Exception {
+        String page = render("app://home");
+        assertFalse(page.contains("Loading user permissions"));
+
+        Permissions.SetPermissions(new String[]{"no-permissions-loaded"});
+        String script = router.PermissionPatchScript();
+
+        assertNotNull(script);
+        assertTrue(script.contains("Loading user permissions"));
+        assertEquals("", router.PermissionPatchScript()); // already patched
+
+        // The stored page is kept in step with the patches, for hot-reload
+        String patched = HotReloadMonitor.lastPageRendered.LastRenderedBody;
+        assertTrue(patched.contains("Loading user permissions"));
+        assertFalse(patched.contains("\ud83d\udc4d")); // the 'else' block was patched with it
+    }
+
+    @Test
+    public void samePermissionsNeedNoPatch() throws Exception {
+        Permissions.SetPermissions(new String[]{"perm1"});
+        render("app://home");
+
+        Permissions.SetPermissions(new String[]{"perm1"});
+        assertEquals("", router.PermissionPatchScript());
+    }
+
+    @Test
+    public void loginWithUrlViewNeedsAFullRender() throws Exception {
+        String page = render("app://examples/permission-visibility");
+        assertTrue(page.contains("This sub-view shows you don't have permission one."));
+
+        Permissions.SetPermissions(new String[]{"perm1"}); // log in
+        assertNull(router.PermissionPatchScript());
+
+        page = render("app://examples/permission-visibility");
+        assertTrue(page.contains("This sub-view shows you have permission one."));
+    }
+
+    @Test
+    public void logoutWithUrlViewNeedsAFullRender() throws Exception {
+        Permissions.SetPermissions(new String[]{"perm2"});
+        render("app://examples/permission-visibility");
+
+        Permissions.ClearPermissions(); // log out
+        assertNull(router.PermissionPatchScript());
+    }
+
+    /** Render a page in full, as the web view would when not streaming */
+    private String render(String url) throws Exception {
+        return router.getControllerResponse(new PageRequest(url));
+    }
+
+    /** A navigation from the web view */
+    private static final class PageRequest implements WebResourceRequest {
+        private final Uri url;
+
+        PageRequest(String url) {
+            this.url = Uri.parse(url);
+        }
+
+        @Override
+        public Uri getUrl() {return url;}
+
+        @Override
+        public boolean isForMainFrame() {return true;}
+
+        @Override
+        public boolean isRedirect() {return false;}
+
+        @Override
+        public boolean hasGesture() {return true;}
+
+        @Override
+        public String getMethod() {return "GET";}
+
+        @Override
+        public Map<String, String> getRequestHeaders() {return Collections.emptyMap();}
+    }
+}
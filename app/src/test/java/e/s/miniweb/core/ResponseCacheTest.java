@@ -0,0 +1,124 @@
+package e.s.miniweb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import e.s.miniweb.core.template.QueryParams;
+import e.s.miniweb.core.template.TemplateResponse;
+
+/**
+ * Expiry, size limits and keys of a route's `ResponseCache`.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ResponseCacheTest {
+    private static final String ROUTE = ControllerBinding.makeKey("test", "cached");
+
+    @Before
+    public void setUp() {
+        Permissions.ClearPermissions();
+    }
+
+    @After
+    public void tearDown() {
+        Permissions.ClearPermissions();
+    }
+
+    @Test
+    public void entriesExpireAfterTheirTimeToLive() {
+        ResponseCache cache = new ResponseCache(1000, 8);
+        cache.put("a", "output", page());
+
+        assertEquals("output", cache.get("a").Output);
+
+        SystemClock.sleep(1001);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsDropped() {
+        ResponseCache cache = new ResponseCache(60_000, 2);
+        cache.put("a", "A", page());
+        cache.put("b", "B", page());
+        cache.get("a"); // 'b' is now the least recently used
+
+        cache.put("c", "C", page());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void keysChangeWithPermissions() {
+        Map<String, String> params = new HashMap<>();
+        params.put("id", "1");
+
+        String before = ResponseCache.keyFor(ROUTE, params);
+        Permissions.SetPermissions(new String[]{"perm1"});
+        String after = ResponseCache.keyFor(ROUTE, params);
+        Permissions.SetPermissions(new String[]{"perm1"});
+
+        assertNotEquals(before, after);
+        assertEquals(after, ResponseCache.keyFor(ROUTE, params));
+    }
+
+    @Test
+    public void keysIgnoreParameterOrderButNotRepeatedValueOrder() {
+        assertEquals(ResponseCache.keyFor(ROUTE, new QueryParams("a=1&b=2")),
+                ResponseCache.keyFor(ROUTE, new QueryParams("b=2&a=1")));
+        assertNotEquals(ResponseCache.keyFor(ROUTE, new QueryParams("a=1&a=2")),
+                ResponseCache.keyFor(ROUTE, new QueryParams("a=2&a=1")));
+        assertNotEquals(ResponseCache.keyFor(ROUTE, new QueryParams("a=1&b=2")),
+                ResponseCache.keyFor(ROUTE, new QueryParams("a=1%26b%3D2")));
+    }
+
+    @Test
+    public void eachHitGetsItsOwnResponse() {
+        ResponseCache cache = new ResponseCache(60_000, 8);
+        TemplateResponse rendered = page();
+        cache.put("a", "output", rendered);
+        rendered.LastRenderedBody = "changed by the page that rendered it";
+
+        TemplateResponse first = cache.get("a").response();
+        TemplateResponse second = cache.get("a").response();
+        first.LastRenderedBody = "patched";
+
+        assertNotSame(first, second);
+        assertNull(second.LastRenderedBody);
+        assertEquals("examples/page", second.TemplatePath);
+        assertEquals(rendered.Model, second.Model);
+    }
+
+    @Test
+    public void entriesCanBeRemovedByPrefix() {
+        ResponseCache cache = new ResponseCache(60_000, 8);
+        cache.put(ROUTE + "?1", "A", page());
+        cache.put("other?1", "B", page());
+
+        cache.removeByPrefix(ROUTE);
+
+        assertNull(cache.get(ROUTE + "?1"));
+        assertNotNull(cache.get("other?1"));
+    }
+
+    private static TemplateResponse page() {
+        TemplateResponse response = new TemplateResponse();
+        response.TemplatePath = "examples/page";
+        response.Model = new Object();
+        return response;
+    }
+}
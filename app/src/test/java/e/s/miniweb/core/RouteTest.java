@@ -0,0 +1,157 @@
+package e.s.miniweb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.webkit.WebResourceRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import e.s.miniweb.core.template.TemplateResponse;
+import e.s.miniweb.core.template.WebMethod;
+
+/**
+ * Finding routes from url paths, through `ControllerBinding.FindRoute`.
+ */
+public class RouteTest {
+    /** Routes are found by shape, so every method can share one handler */
+    private static final WebMethod HANDLER = new WebMethod() {
+        @Override
+        public TemplateResponse RunControllerMethod(Map<String, String> parameters, WebResourceRequest request) {
+            return null;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ControllerBinding.ClearBindings();
+    }
+
+    @After
+    public void tearDown() {
+        ControllerBinding.ClearBindings();
+    }
+
+    @Test
+    public void fixedPathsAreFound() {
+        bind("orders", "list");
+        bind("orders", "list/open");
+
+        assertEquals("list", method("orders", "list"));
+        assertEquals("list", method("orders", "/list"));
+        assertEquals("list/open", method("orders", "/list/open"));
+        assertNull(findRoute("orders", "/list/closed"));
+        assertNull(findRoute("orders", "/lis"));
+        assertNull(findRoute("invoices", "/list"));
+    }
+
+    @Test
+    public void emptyPathUsesIndex() {
+        assertNull(findRoute("home", ""));
+
+        bind("home", "index");
+        assertEquals("index", method("home", ""));
+        assertEquals("index", method("home", "/"));
+        assertEquals("index", method("home", "/index"));
+    }
+
+    @Test
+    public void capturesMatchAnyOnePart() {
+        bind("orders", "{id}/lines");
+
+        Route route = findRoute("orders", "/1234/lines");
+        assertEquals("{id}/lines", route.Method);
+
+        Map<String, String> params = new HashMap<>();
+        params.put("id", "from query");
+        route.addCaptures("/1234/lines", params);
+        assertEquals("1234", params.get("id"));
+
+        assertNull(findRoute("orders", "/1234"));
+        assertNull(findRoute("orders", "//lines")); // captures can't be empty
+        assertNull(findRoute("orders", "/1234/lines/5"));
+    }
+
+    @Test
+    public void defaultMethodCanBeACapture() {
+        bind("pages", "{name}");
+
+        Route route = findRoute("pages", "");
+        assertEquals("{name}", route.Method);
+
+        Map<String, String> params = new HashMap<>();
+        route.addCaptures("", params);
+        assertEquals("index", params.get("name"));
+    }
+
+    @Test
+    public void fixedPartsWinOverCaptures() {
+        bind("orders", "{id}");
+        bind("orders", "new");
+
+        assertEquals("new", method("orders", "/new"));
+        assertEquals("{id}", method("orders", "/old"));
+    }
+
+    @Test
+    public void failedFixedPartsBacktrackToCaptures() {
+        bind("orders", "new/form");
+        bind("orders", "{id}/lines");
+
+        assertEquals("new/form", method("orders", "/new/form"));
+        assertEquals("{id}/lines", method("orders", "/new/lines")); // 'new' matched first, then gave way
+        assertEquals("{id}/lines", method("orders", "/17/lines"));
+    }
+
+    @Test
+    public void conflictingPatternsKeepTheFirst() {
+        bind("orders", "{id}/lines");
+        bind("orders", "{code}/lines"); // same urls as the first
+        bind("orders", "list");
+        bind("orders", "list"); // repeated
+
+        assertEquals("{id}/lines", method("orders", "/5/lines"));
+        assertEquals("list", method("orders", "/list"));
+    }
+
+    @Test
+    public void bindingCopiesOnlyThePathOfTheNewMethod() {
+        Route first = new Route("orders", "list/open", HANDLER, null, null);
+        Route second = new Route("orders", "{id}/lines", HANDLER, null, null);
+
+        Route.Node before = Route.Node.EMPTY.with(first);
+        Route.Node after = before.with(second);
+
+        // the earlier table is unchanged, and still shared by the new one
+        assertNull(before.find("/5/lines"));
+        assertSame(first, before.find("/list/open"));
+        assertSame(first, after.find("/list/open"));
+        assertSame(second, after.find("/5/lines"));
+
+        assertNull(after.with(new Route("orders", "{x}/lines", HANDLER, null, null)));
+        assertNull(Route.Node.EMPTY.find(""));
+    }
+
+    //region helpers
+
+    private static void bind(String controller, String method) {
+        ControllerBinding.BindMethod(controller, method, HANDLER);
+    }
+
+    private static Route findRoute(String controller, String path) {
+        return ControllerBinding.FindRoute(controller, path);
+    }
+
+    private static String method(String controller, String path) {
+        Route route = findRoute(controller, path);
+        return route == null ? null : route.Method;
+    }
+
+    //endregion
+}
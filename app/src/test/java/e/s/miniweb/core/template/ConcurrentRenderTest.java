@@ -0,0 +1,147 @@
+package e.s.miniweb.core.template;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import e.s.miniweb.core.AppWebRouter;
+import e.s.miniweb.core.Permissions;
+import e.s.miniweb.core.hotReload.AssetLoader;
+
+/**
+ * Renders the example pages on many threads at once, through one engine,
+ * and checks every render matches the same page rendered on one thread.
+ * <p>
+ * The pages cover `&lt;_needs>` with `&lt;_else>`, and a `&lt;_view url=...>` nested inside `&lt;_needs>`.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrentRenderTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 25;
+
+    /** controller, method of each page */
+    private static final String[][] PAGES = {
+            {"examples", "permission-visibility"},
+            {"examples", "templating-examples"},
+            {"examples", "partial-views"},
+            {"home", "index"},
+    };
+
+    private AppWebRouter router;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        router = new AppWebRouter(new AssetLoader(context.getAssets()), null);
+        Permissions.SetPermissions(new String[]{"perm1", "perm2"}); // shows the nested url view
+        TemplateCache.Clear();
+    }
+
+    @After
+    public void tearDown() {
+        Permissions.ClearPermissions();
+        TemplateCache.Clear();
+    }
+
+    @Test
+    public void concurrentRendersMatchSerialRenders() throws Exception {
+        Map<String, String> expected = renderAll();
+
+        TemplateCache.Clear(); // so the threads also race to compile the templates
+        List<Map<String, String>> results = onThreads(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() throws Exception {
+                return renderAll();
+            }
+        });
+
+        for (Map<String, String> result : results) {
+            for (Map.Entry<String, String> page : expected.entrySet()) {
+                assertEquals(page.getKey(), page.getValue(), result.get(page.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void elseBlocksFollowTheirOwnRender() throws Exception {
+        // Alternate the page with the most `<_else>` blocks with a page that hides and shows other blocks
+        final String[] first = PAGES[0];
+        final String[] second = PAGES[3];
+        final String expectedFirst = render(first);
+        final String expectedSecond = render(second);
+
+        List<Boolean> results = onThreads(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                for (int i = 0; i < ROUNDS; i++) {
+                    assertEquals(expectedFirst, render(first));
+                    assertEquals(expectedSecond, render(second));
+                }
+                return true;
+            }
+        });
+        assertEquals(THREADS, results.size());
+    }
+
+    /** Run the task on every thread at the same time, `ROUNDS` times each, and collect the last results */
+    private <T> List<T> onThreads(final Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        start.await();
+                        T result = null;
+                        for (int i = 0; i < ROUNDS; i++) result = task.call();
+                        return result;
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) results.add(future.get(60, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Map<String, String> renderAll() throws Exception {
+        Map<String, String> pages = new LinkedHashMap<>();
+        for (String[] page : PAGES) {
+            pages.put(page[0] + "/" + page[1], render(page));
+        }
+        return pages;
+    }
+
+    /** Render a page body. Region ids are unique to each render, so they are blanked out */
+    private String render(String[] page) throws Exception {
+        String url = "app://" + page[0] + "/" + page[1];
+        String body = router.getPartialResponse(page[0], page[1], new HashMap<String, String>(), new InternalRequest(url, null));
+        return body.replaceAll("_needs:[0-9]+", "_needs:N");
+    }
+}
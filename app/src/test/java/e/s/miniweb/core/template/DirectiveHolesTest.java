@@ -0,0 +1,83 @@
+package e.s.miniweb.core.template;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import e.s.miniweb.core.Permissions;
+
+/**
+ * Moustache holes inside template directives are filled from the page model before the directive is run.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DirectiveHolesTest {
+    private final TemplateEngine engine = new TemplateEngine(null, null);
+
+    @After
+    public void tearDown() {
+        Permissions.ClearPermissions();
+    }
+
+    @Test
+    public void holesInForTagAreFilled() {
+        assertEquals("a,b,", render("<_for {{listName}}><_>#</_>,</_for>"));
+    }
+
+    @Test
+    public void holesInForTagCanReadTheItem() {
+        assertEquals("[a][b]", render("<_for groups><_for {{groupField}}>[<_>#</_>]</_for></_for>"));
+    }
+
+    @Test
+    public void holesInNeedsTagAreFilled() {
+        String template = "<_needs {{permission}}>yes</_needs><_else>no</_else>";
+        assertEquals("no", render(template));
+
+        Permissions.SetPermissions(new String[]{"perm1"});
+        assertEquals("yes", render(template));
+    }
+
+    @Test
+    public void holesInValuesAreFilled() {
+        assertEquals("Ann", render("<_>{{field}}</_>"));
+    }
+
+    @Test
+    public void bodyOfFilledDirectiveStillRendersNormally() {
+        assertEquals("Ann: a;Ann: b;", render("<_for {{listName}}>{{name}}: <_>#</_>;</_for>"));
+    }
+
+    @Test
+    public void filledValuesAreNotFilledAgain() {
+        assertEquals("", render("<_for {{selfHole}}>x</_for>"));
+    }
+
+    private String render(String template) {
+        CompiledTemplate compiled = CompiledTemplate.compile("test", Collections.singletonList(template));
+        RenderContext page = new RenderContext();
+        engine.interpret(compiled.Program, page, null, new Model(), null, 0, compiled.Program.ops.length);
+        return page.output().trim(); // template lines end with a line break
+    }
+
+    public static class Model {
+        public final String listName = "items";
+        public final List<String> items = Arrays.asList("a", "b");
+        public final List<Group> groups = Collections.singletonList(new Group());
+        public final String groupField = "#.letters";
+        public final String permission = "perm1";
+        public final String field = "name";
+        public final String name = "Ann";
+        public final String selfHole = "{{selfHole}}";
+    }
+
+    public static class Group {
+        public final List<String> letters = Arrays.asList("a", "b");
+    }
+}
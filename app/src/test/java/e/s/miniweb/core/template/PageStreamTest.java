@@ -0,0 +1,140 @@
+package e.s.miniweb.core.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a page into a `PageStream` on one thread, while another reads it, or stops reading.
+ */
+public class PageStreamTest {
+    /** Much more than the stream holds for a reader, so the writer has to wait */
+    private static final int PAGE_CHARS = 200_000;
+
+    @Test
+    public void slowReaderGetsTheWholePage() throws Exception {
+        final String page = page();
+        final PageStream stream = PageStream.forRender(null, null, 5_000);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> written = writer.submit(writePage(stream, page));
+
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int count;
+            while ((count = stream.read(buffer, 0, buffer.length)) > 0) {
+                read.write(buffer, 0, count);
+                Thread.sleep(0, 500);
+            }
+
+            assertTrue(written.get(5, TimeUnit.SECONDS));
+            assertEquals(page, new String(read.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abandonedReaderStopsTheWriter() throws Exception {
+        PageStream stream = PageStream.forRender(null, null, 500);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> written = writer.submit(writePage(stream, page()));
+
+            assertWriteFailed(written, "stopped reading");
+            assertEquals(-1, stream.read()); // a reader that comes back sees the page end
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void closedReaderStopsTheWriter() throws Exception {
+        PageStream stream = PageStream.forRender(null, null, 60_000);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> written = writer.submit(writePage(stream, page()));
+
+            stream.read(); // writer has started
+            stream.close();
+
+            assertWriteFailed(written, "closed by reader");
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fragmentsAreWrapped() throws Exception {
+        PageStream stream = PageStream.forRender("<head>", "<foot>");
+        stream.write("<p>body</p>", 0, 11);
+        stream.finish();
+
+        assertEquals("<head><p>body</p><foot>", readAll(stream));
+    }
+
+    @Test
+    public void documentsAreNotWrapped() throws Exception {
+        String page = "<!doctype html><html><body>\u00e9\ud83d\udc4d</body></html>";
+        PageStream stream = PageStream.forRender("<head>", "<foot>");
+        stream.write(page, 0, page.length());
+        stream.finish();
+
+        assertEquals(page, readAll(stream));
+    }
+
+    //region helpers
+
+    private static Callable<Boolean> writePage(final PageStream stream, final String page) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                for (int i = 0; i < page.length(); i += 100) {
+                    stream.write(page, i, Math.min(page.length(), i + 100));
+                }
+                stream.finish();
+                return true;
+            }
+        };
+    }
+
+    private static void assertWriteFailed(Future<Boolean> written, String reason) throws Exception {
+        try {
+            written.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+            assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains(reason));
+            return;
+        }
+        throw new AssertionError("Write should have failed");
+    }
+
+    /** Mixed text, including characters that take more than one byte */
+    private static String page() {
+        StringBuilder sb = new StringBuilder(PAGE_CHARS);
+        while (sb.length() < PAGE_CHARS) sb.append("<p>Line ").append(sb.length()).append(" caf\u00e9 \u20ac</p>\n");
+        return sb.toString();
+    }
+
+    private static String readAll(PageStream stream) throws Exception {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        int b;
+        while ((b = stream.read()) >= 0) read.write(b);
+        return new String(read.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    //endregion
+}
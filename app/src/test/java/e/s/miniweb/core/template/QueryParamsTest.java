@@ -0,0 +1,165 @@
+package e.s.miniweb.core.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reading url queries with `QueryParams`.
+ */
+public class QueryParamsTest {
+
+    @Test
+    public void plainParametersAreRead() {
+        QueryParams params = new QueryParams("a=1&b=two&c=");
+
+        assertEquals(3, params.size());
+        assertEquals("1", params.get("a"));
+        assertEquals("two", params.get("b"));
+        assertEquals("", params.get("c"));
+        assertNull(params.get("d"));
+        assertFalse(params.containsKey("d"));
+    }
+
+    @Test
+    public void emptyQueries() {
+        assertTrue(new QueryParams((String) null).isEmpty());
+        assertTrue(new QueryParams("").isEmpty());
+        assertTrue(new QueryParams("&&?").isEmpty());
+    }
+
+    @Test
+    public void nameWithNoValueIsItsOwnValue() {
+        QueryParams params = new QueryParams("isPostback&x=1");
+
+        assertEquals("isPostback", params.get("isPostback"));
+        assertEquals("1", params.get("x"));
+    }
+
+    @Test
+    public void questionMarksSeparateParameters() {
+        QueryParams params = new QueryParams("a=1?b=2");
+
+        assertEquals("1", params.get("a"));
+        assertEquals("2", params.get("b"));
+    }
+
+    @Test
+    public void percentEscapesAreReadAsUtf8() {
+        QueryParams params = new QueryParams("name=J%C3%BCrgen&city=%E6%9D%B1%E4%BA%AC&sym=%E2%82%AC%20%26%3D");
+
+        assertEquals("J\u00fcrgen", params.get("name"));
+        assertEquals("\u6771\u4eac", params.get("city"));
+        assertEquals("\u20ac &=", params.get("sym"));
+    }
+
+    @Test
+    public void escapedNamesAreDecoded() {
+        QueryParams params = new QueryParams("first%20name=Ann&last+name=Lee");
+
+        assertEquals("Ann", params.get("first name"));
+        assertEquals("Lee", params.get("last name"));
+        assertEquals(2, params.size());
+    }
+
+    @Test
+    public void plusIsASpace() {
+        QueryParams params = new QueryParams("q=hello+world+%2B1");
+
+        assertEquals("hello world +1", params.get("q"));
+    }
+
+    @Test
+    public void malformedEscapesAreKept() {
+        QueryParams params = new QueryParams("a=100%&b=%zz1&c=%4&d=%41%4");
+
+        assertEquals("100%", params.get("a"));
+        assertEquals("%zz1", params.get("b"));
+        assertEquals("%4", params.get("c"));
+        assertEquals("A%4", params.get("d"));
+    }
+
+    @Test
+    public void repeatedNamesGiveTheLastValue() {
+        QueryParams params = new QueryParams("id=1&x=a&id=2&id=3");
+
+        assertEquals("3", params.get("id"));
+        assertEquals(2, params.size());
+        assertEquals(Arrays.asList("1", "2", "3"), params.getAll("id"));
+        assertEquals(Arrays.asList("1", "2", "3"), QueryParams.GetAll(params, "id"));
+        assertEquals(Collections.singletonList("a"), params.getAll("x"));
+        assertTrue(params.getAll("none").isEmpty());
+    }
+
+    @Test
+    public void entriesHaveOneEntryPerName() {
+        QueryParams params = new QueryParams("id=1&x=a&id=2&y=b");
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("x", "a");
+        expected.put("id", "2");
+        expected.put("y", "b");
+        assertEquals(expected, new LinkedHashMap<>(params));
+        assertEquals(expected.entrySet().size(), params.entrySet().size());
+    }
+
+    @Test
+    public void putReplacesAllValues() {
+        QueryParams params = new QueryParams("id=1&x=a&id=2");
+
+        assertEquals("2", params.put("id", "new"));
+        assertEquals("new", params.get("id"));
+        assertEquals(Collections.singletonList("new"), params.getAll("id"));
+        assertEquals("a", params.get("x"));
+        assertEquals(2, params.size());
+
+        assertNull(params.put("added", "v"));
+        assertEquals("v", params.get("added"));
+        assertEquals(3, params.size());
+    }
+
+    @Test
+    public void removeTakesAllValues() {
+        QueryParams params = new QueryParams("id=1&x=a&id=2&y=b");
+
+        assertEquals("2", params.remove("id"));
+        assertFalse(params.containsKey("id"));
+        assertEquals("a", params.get("x"));
+        assertEquals("b", params.get("y"));
+        assertEquals(2, params.size());
+        assertNull(params.remove("id"));
+    }
+
+    @Test
+    public void copiesAreSeparate() {
+        QueryParams original = new QueryParams("a=1&b=2");
+        QueryParams copy = new QueryParams(original);
+
+        copy.put("a", "changed");
+        copy.remove("b");
+
+        assertEquals("1", original.get("a"));
+        assertEquals("2", original.get("b"));
+        assertEquals("changed", copy.get("a"));
+        assertEquals(1, copy.size());
+    }
+
+    @Test
+    public void otherMapsGiveOneValue() {
+        Map<String, String> params = new HashMap<>();
+        params.put("a", "1");
+
+        assertEquals(Collections.singletonList("1"), QueryParams.GetAll(params, "a"));
+        assertTrue(QueryParams.GetAll(params, "b").isEmpty());
+        assertTrue(QueryParams.GetAll(null, "b").isEmpty());
+    }
+}
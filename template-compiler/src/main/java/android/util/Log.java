@@ -0,0 +1,25 @@
+package android.util;
+
+/**
+ * Stand-in for the Android logger, so the template compiler can run at build time.
+ * Messages are written to the build output.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int i(String tag, String msg) {
+        System.out.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,90 @@
+package e.s.miniweb.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import e.s.miniweb.core.template.ViewRendererWriter;
+
+/**
+ * Compiles the view templates in an assets folder to Java `ViewRenderer` classes.
+ * <p>
+ * Usage: `GenerateViewRenderers {assets folder} {output folder} {template folder}...`
+ * <br>Template folders are relative to the assets folder, like `views`.
+ * Sources are written under the output folder, which should be added to the app's Java sources.
+ */
+public class GenerateViewRenderers {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: GenerateViewRenderers {assets folder} {output folder} {template folder}...");
+            System.exit(1);
+        }
+
+        File assets = new File(args[0]);
+        File output = new File(args[1], ViewRendererWriter.PACKAGE.replace('.', '/'));
+
+        // Sorted, so the same templates always give the same classes
+        Map<String, List<String>> templates = new TreeMap<>();
+        for (int i = 2; i < args.length; i++) {
+            PrecompileViews.addTemplates(new File(assets, args[i]), args[i] + "/", templates);
+        }
+
+        // Remove renderers for templates that have been deleted
+        File[] old = output.listFiles();
+        if (old != null) {
+            for (File file : old) {
+                if (file.getName().endsWith(".java") && !file.delete()) throw new IOException("Could not delete " + file);
+            }
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Could not create " + output);
+        }
+
+        Map<String, String> renderers = new LinkedHashMap<>();
+        Set<String> classNames = new HashSet<>();
+        for (Map.Entry<String, List<String>> template : templates.entrySet()) {
+            String path = template.getKey();
+            String className = className(path, classNames);
+            String source = ViewRendererWriter.Write(className, path, template.getValue());
+            if (source == null) {
+                System.err.println("Warning: could not generate a renderer for " + path + ". It will be interpreted instead.");
+                continue;
+            }
+            write(new File(output, className + ".java"), source);
+            renderers.put(path, className);
+        }
+        write(new File(output, ViewRendererWriter.REGISTRY + ".java"), ViewRendererWriter.WriteRegistry(renderers));
+
+        System.out.println("Generated " + renderers.size() + " view renderers into " + output);
+    }
+
+    /** A class name for the template at an asset path, like `Render_views_home_index` */
+    private static String className(String path, Set<String> used) {
+        if (path.endsWith(".html")) path = path.substring(0, path.length() - 5);
+
+        StringBuilder sb = new StringBuilder("Render_");
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) && c < 0x80 ? c : '_');
+        }
+
+        String name = sb.toString();
+        for (int i = 2; !used.add(name); i++) name = sb + "_" + i; // paths can differ only in punctuation
+        return name;
+    }
+
+    private static void write(File file, String source) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package e.s.miniweb.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import e.s.miniweb.core.template.ViewArchive;
+
+/**
+ * Parses the view templates in an assets folder, and writes them to a `ViewArchive`.
+ * <p>
+ * Usage: `PrecompileViews {assets folder} {output folder} {template folder}...`
+ * <br>Template folders are relative to the assets folder, like `views`.
+ * The archive is written to `ViewArchive.ASSET` under the output folder.
+ */
+public class PrecompileViews {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: PrecompileViews {assets folder} {output folder} {template folder}...");
+            System.exit(1);
+        }
+
+        File assets = new File(args[0]);
+        File output = new File(args[1], ViewArchive.ASSET);
+
+        // Sorted, so the same templates always give the same file
+        Map<String, List<String>> templates = new TreeMap<>();
+        for (int i = 2; i < args.length; i++) {
+            addTemplates(new File(assets, args[i]), args[i] + "/", templates);
+        }
+
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        List<String> failed;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            failed = ViewArchive.Write(templates, out);
+        }
+        for (String path : failed) {
+            System.err.println("Warning: could not parse " + path + ". It will be parsed on the device instead.");
+        }
+        System.out.println("Precompiled " + (templates.size() - failed.size()) + " templates into " + output);
+    }
+
+    /** Add every '.html' file under a folder, keyed by its asset path */
+    static void addTemplates(File folder, String assetPath, Map<String, List<String>> templates) throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addTemplates(file, assetPath + file.getName() + "/", templates);
+            } else if (file.getName().endsWith(".html")) {
+                templates.put(assetPath + file.getName(), readLines(file));
+            }
+        }
+    }
+
+    /** Read a file into lines, the same way `TemplateEngine` reads templates on the device */
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) lines.add(line);
+        }
+        return lines;
+    }
+}
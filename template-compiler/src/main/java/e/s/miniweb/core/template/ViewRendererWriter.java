@@ -0,0 +1,332 @@
+package e.s.miniweb.core.template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the Java source of a `ViewRenderer` for a compiled template.
+ * <p>
+ * Each block of the program becomes a method named for its instruction range, like `b12_40`.
+ * The generated `run` method calls these for the ranges `TemplateEngine` asks for: the whole program,
+ * the parts of marked `&lt;_needs>` regions, and `&lt;_cache>` blocks.
+ * <p>
+ * Generated code does exactly what `TemplateEngine.interpret` does for the same instructions.
+ * Directive arguments are still read from the program, so the code only depends on the program's shape.
+ */
+public final class ViewRendererWriter {
+    /** Package of the generated classes. They use package-private parts of the template engine */
+    public static final String PACKAGE = "e.s.miniweb.core.template";
+    /** Class that lists every generated renderer. See `ViewRenderers` */
+    public static final String REGISTRY = "ViewRendererRegistry";
+
+    /** Most instructions written into one method. Longer ranges are split, to keep methods small enough to compile well */
+    private static final int MAX_STATEMENTS = 100;
+    /** Templates with blocks nested deeper than this are left to the interpreter, as each level of nesting is a Java call */
+    private static final int MAX_DEPTH = 64;
+    /** Templates that need more methods than this are left to the interpreter, as a class file can only hold so much */
+    private static final int MAX_METHODS = 1000;
+
+    private final TemplateProgram program;
+    private final StringBuilder out = new StringBuilder();
+    /** Ranges that have a method, as `start << 32 | end` */
+    private final Set<Long> written = new HashSet<>();
+    /** Ranges that still need a method, as {start, end} */
+    private final ArrayDeque<int[]> pending = new ArrayDeque<>();
+
+    private ViewRendererWriter(TemplateProgram program) {
+        this.program = program;
+    }
+
+    /**
+     * Compile the lines of a template file, and write a renderer class for it.
+     * Returns null if the template can't be parsed, or is too large or deeply nested to generate.
+     */
+    public static String Write(String className, String path, List<String> lines) {
+        TemplateProgram program;
+        try {
+            program = TemplateCompiler.compile(HTree.parseLines(lines));
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        if (blockDepth(program) > MAX_DEPTH) return null;
+
+        try {
+            return new ViewRendererWriter(program).writeClass(className, path);
+        } catch (IllegalStateException ex) { // instructions out of order
+            return null;
+        }
+    }
+
+    /** Write the registry class, listing renderer class names by asset path */
+    public static String WriteRegistry(Map<String, String> renderers) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        sb.append("/** Generated by the view renderer generator. Do not edit. */\n");
+        sb.append("@SuppressWarnings(\"all\")\n");
+        sb.append("public final class ").append(REGISTRY).append(" {\n");
+        sb.append("    /** Add a renderer for every generated view, keyed by asset path */\n");
+        sb.append("    public static void RegisterAll(java.util.Map<String, ViewRenderer> renderers) {\n");
+        int parts = (renderers.size() + MAX_STATEMENTS - 1) / MAX_STATEMENTS;
+        for (int i = 0; i < parts; i++) sb.append("        register").append(i).append("(renderers);\n");
+        sb.append("    }\n");
+
+        // In parts, as one method can't hold thousands of views
+        int count = 0;
+        for (Map.Entry<String, String> renderer : renderers.entrySet()) {
+            if (count % MAX_STATEMENTS == 0) {
+                if (count > 0) sb.append("    }\n");
+                sb.append("\n    private static void register").append(count / MAX_STATEMENTS).append("(java.util.Map<String, ViewRenderer> renderers) {\n");
+            }
+            sb.append("        renderers.put(").append(quote(renderer.getKey())).append(", new ").append(renderer.getValue()).append("());\n");
+            count++;
+        }
+        if (count > 0) sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    //region internals
+
+    /** Write the whole class, or return null if it needs too many methods */
+    private String writeClass(String className, String path) {
+        int count = program.ops.length;
+        List<int[]> entries = new ArrayList<>();
+        entries.add(new int[]{0, count});
+        for (int pc = 0; pc < count; pc++) {
+            int op = program.ops[pc];
+            if (op == TemplateProgram.OP_NEEDS && program.right[pc] > 0) {
+                addEntry(entries, pc + 1, program.left[pc]);
+                addEntry(entries, program.left[pc], program.right[pc]);
+            } else if (op == TemplateProgram.OP_CACHE) {
+                addEntry(entries, pc + 1, program.left[pc]);
+            }
+        }
+
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("import java.util.concurrent.Future;\n\n");
+        out.append("/** Generated from ").append(path).append(" by the view renderer generator. Do not edit. */\n");
+        out.append("@SuppressWarnings(\"all\")\n");
+        out.append("final class ").append(className).append(" extends ViewRenderer {\n");
+        out.append("    ").append(className).append("() {\n");
+        out.append("        super(").append(program.fingerprint()).append("L);\n");
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    void run(TemplateEngine engine, TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials, int start, int end) {\n");
+        out.append("        switch (start) {\n");
+        int lastStart = -1;
+        entries.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+        for (int[] entry : entries) {
+            if (entry[0] != lastStart) {
+                if (lastStart >= 0) out.append("                break;\n");
+                out.append("            case ").append(entry[0]).append(":\n");
+                lastStart = entry[0];
+            }
+            out.append("                if (end == ").append(entry[1]).append(") {\n");
+            out.append("                    ").append(call(entry[0], entry[1], "item")).append("\n");
+            out.append("                    return;\n");
+            out.append("                }\n");
+        }
+        out.append("                break;\n");
+        out.append("        }\n");
+        out.append("        engine.interpret(program, page, item, model, partials, start, end);\n");
+        out.append("    }\n");
+
+        for (int[] entry : entries) pending.add(entry);
+        while (!pending.isEmpty()) {
+            int[] range = pending.poll();
+            writeRange(range[0], range[1]);
+            if (written.size() > MAX_METHODS) return null;
+        }
+
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /** Add a range that `TemplateEngine` can ask for. Empty ranges are left to the interpreter, which does nothing for them */
+    private static void addEntry(List<int[]> entries, int start, int end) {
+        if (start < end) entries.add(new int[]{start, end});
+    }
+
+    /** Write the method for a range of instructions, if it has not been written already */
+    private void writeRange(int start, int end) {
+        if (!written.add(((long) start << 32) | end)) return;
+
+        List<Integer> statements = new ArrayList<>();
+        for (int pc = start; pc < end; pc = next(pc)) statements.add(pc);
+
+        out.append("\n    private static void ").append(method(start, end));
+        out.append("(TemplateEngine engine, TemplateProgram program, RenderContext page, Object item, Object model, Future<?>[] partials) {\n");
+
+        if (statements.size() > MAX_STATEMENTS) { // split into a tree of smaller methods
+            int size = MAX_STATEMENTS;
+            while ((statements.size() + size - 1) / size > MAX_STATEMENTS) size *= MAX_STATEMENTS;
+            for (int i = 0; i < statements.size(); i += size) {
+                int from = statements.get(i);
+                int to = i + size < statements.size() ? statements.get(i + size) : end;
+                line(2, call(from, to, "item"));
+            }
+            out.append("    }\n");
+            return;
+        }
+
+        boolean needsSrc = false;
+        boolean needsArgs = false;
+        for (int pc : statements) {
+            int op = program.ops[pc];
+            if (op == TemplateProgram.OP_TEXT) needsSrc = true;
+            if (op == TemplateProgram.OP_TEXT || op == TemplateProgram.OP_VALUE || op == TemplateProgram.OP_FILL || (op == TemplateProgram.OP_FOR && program.args[pc] != null)) needsArgs = true;
+        }
+        if (needsSrc) line(2, "final String src = program.Src;");
+        if (needsArgs) line(2, "final Object[] a = program.args;");
+
+        for (int pc : statements) writeStatement(pc);
+        out.append("    }\n");
+    }
+
+    /** Write the code for one instruction, including the calls for any block it starts */
+    private void writeStatement(int pc) {
+        int[] left = program.left;
+        int[] right = program.right;
+        switch (program.ops[pc]) {
+            case TemplateProgram.OP_TEXT:
+                line(2, "page.addLiteral(src, " + left[pc] + ", " + right[pc] + ", (byte[]) a[" + pc + "]);");
+                break;
+            case TemplateProgram.OP_VALUE:
+                line(2, "page.add(TemplateEngine.findField(" + source(pc) + ", ((TemplateProgram.ValuePath) a[" + pc + "]).path));");
+                break;
+            case TemplateProgram.OP_FOR:
+                line(2, "page.lastBlockWasHidden = true;");
+                line(2, "page.flagRegionStart = -1;");
+                if (program.args[pc] == null) {
+                    line(2, "page.error();");
+                    break;
+                }
+                int bodyEnd = left[pc] - 1; // before the OP_LOOP
+                line(2, "{");
+                line(3, "Object items = TemplateEngine.findFieldObject(" + source(pc) + ", ((TemplateProgram.ValuePath) a[" + pc + "]).path);");
+                line(3, "if (items instanceof Iterable) {");
+                line(4, "for (Object each : (Iterable<?>) items) {");
+                line(5, "page.lastBlockWasHidden = false;");
+                line(5, "page.flagRegionStart = -1;");
+                if (pc + 1 < bodyEnd) line(5, call(pc + 1, bodyEnd, "each"));
+                line(4, "}");
+                line(3, "} else if (items != null && !Boolean.FALSE.equals(items)) {");
+                line(4, "page.lastBlockWasHidden = false;");
+                if (pc + 1 < bodyEnd) line(4, call(pc + 1, bodyEnd, "items"));
+                line(3, "}");
+                line(2, "}");
+                break;
+            case TemplateProgram.OP_ELSE:
+                line(2, "if (page.flagRegionStart >= 0) page.lockFlagRegion();");
+                if (pc + 1 < left[pc]) line(2, "if (page.lastBlockWasHidden) " + call(pc + 1, left[pc], "item"));
+                break;
+            case TemplateProgram.OP_NEEDS:
+                if (right[pc] > 0) { // a region that can be marked
+                    line(2, "if (page.regions != null) {");
+                    line(3, "engine.renderRegion(program, page, item, model, " + pc + ");");
+                    line(2, "} else {");
+                    writeNeedsCheck(3, pc);
+                    if (left[pc] < right[pc]) line(3, call(left[pc], right[pc], "item"));
+                    line(2, "}");
+                } else {
+                    writeNeedsCheck(2, pc);
+                }
+                break;
+            case TemplateProgram.OP_VIEW:
+                line(2, "engine.viewBlock(program, page, item, model, partials, " + pc + ");");
+                break;
+            case TemplateProgram.OP_CACHE:
+                if (pc + 1 < left[pc]) line(2, "if (!engine.cacheBlock(program, page, item, model, " + pc + ")) " + call(pc + 1, left[pc], "item"));
+                else line(2, "engine.cacheBlock(program, page, item, model, " + pc + ");");
+                break;
+            case TemplateProgram.OP_FILL:
+                line(2, "engine.fillBlock(page, item, model, (String) a[" + pc + "]);");
+                break;
+            case TemplateProgram.OP_FAIL:
+                line(2, "TemplateEngine.invalidMarkup(" + pc + ");");
+                break;
+            case TemplateProgram.OP_LOOP:
+                throw new IllegalStateException("Loop end outside of a 'for' block at " + pc);
+            default: // OP_ERROR, or anything we don't understand
+                line(2, "page.error();");
+                break;
+        }
+    }
+
+    private void writeNeedsCheck(int indent, int pc) {
+        String check = "TemplateEngine.needsBlock(program, page, item, model, " + pc + ")";
+        if (pc + 1 < program.left[pc]) line(indent, "if (" + check + ") " + call(pc + 1, program.left[pc], "item"));
+        else line(indent, check + ";");
+    }
+
+    /** Position of the next instruction at the same level of nesting */
+    private int next(int pc) {
+        switch (program.ops[pc]) {
+            case TemplateProgram.OP_FOR:
+            case TemplateProgram.OP_ELSE:
+            case TemplateProgram.OP_CACHE:
+                return program.left[pc];
+            case TemplateProgram.OP_NEEDS:
+                return program.right[pc] > 0 ? program.right[pc] : program.left[pc];
+            default:
+                return pc + 1;
+        }
+    }
+
+    /** Call statement for the method of a range. The range is queued to be written */
+    private String call(int start, int end, String item) {
+        pending.add(new int[]{start, end});
+        return method(start, end) + "(engine, program, page, " + item + ", model, partials);";
+    }
+
+    private String source(int pc) {
+        return ((TemplateProgram.ValuePath) program.args[pc]).fromItem ? "item" : "model";
+    }
+
+    private void line(int indent, String code) {
+        for (int i = 0; i < indent; i++) out.append("    ");
+        out.append(code).append('\n');
+    }
+
+    private static String method(int start, int end) {
+        return "b" + start + "_" + end;
+    }
+
+    /** Deepest nesting of blocks in the program */
+    private static int blockDepth(TemplateProgram program) {
+        int[] ends = new int[16];
+        int depth = 0;
+        int max = 0;
+        for (int pc = 0; pc < program.ops.length; pc++) {
+            while (depth > 0 && ends[depth - 1] <= pc) depth--;
+
+            int op = program.ops[pc];
+            if (op == TemplateProgram.OP_FOR || op == TemplateProgram.OP_ELSE || op == TemplateProgram.OP_NEEDS || op == TemplateProgram.OP_CACHE) {
+                if (depth >= ends.length) ends = Arrays.copyOf(ends, depth * 2);
+                ends[depth++] = program.left[pc];
+                max = Math.max(max, depth);
+            }
+        }
+        return max;
+    }
+
+    /** Java string literal for a path */
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7E) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    //endregion
+}
@@ -0,0 +1,192 @@
+package e.s.miniweb.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a `ModelAccessor` for each class marked with `@TemplateModel`,
+ * and a `TemplateModelRegistry` that lists them for the template engine.
+ * <p>
+ * Accessors read public fields directly, so the template engine does not
+ * need reflection for these models, and field renaming in release builds
+ * does not break templates.
+ */
+@SupportedAnnotationTypes(TemplateModelProcessor.ANNOTATION)
+public class TemplateModelProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "e.s.miniweb.core.template.TemplateModel";
+    private static final String TEMPLATE_PACKAGE = "e.s.miniweb.core.template";
+    private static final String REGISTRY = "TemplateModelRegistry";
+    private static final String SUFFIX = "_TemplateAccessor";
+
+    /** Generated accessor class name => model it reads */
+    private final Map<String, TypeElement> generated = new LinkedHashMap<>();
+    private boolean registryWritten = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (annotations.isEmpty()) return false;
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@TemplateModel can only be used on classes");
+                    continue;
+                }
+
+                TypeElement type = (TypeElement) element;
+                if (!canReach(type)) {
+                    error(element, "@TemplateModel classes must not be private or local");
+                    continue;
+                }
+
+                writeAccessor(type);
+            }
+        }
+
+        if (registryWritten) {
+            if (!generated.isEmpty()) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "@TemplateModel classes found after the registry was written. These will be read by reflection.");
+            }
+            return true;
+        }
+
+        writeRegistry();
+        return true;
+    }
+
+    /** True if generated code in the same package can refer to the type */
+    private static boolean canReach(TypeElement type) {
+        Element current = type;
+        while (current instanceof TypeElement) {
+            TypeElement currentType = (TypeElement) current;
+            if (currentType.getModifiers().contains(Modifier.PRIVATE)) return false;
+            NestingKind nesting = currentType.getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) return false;
+            current = currentType.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void writeAccessor(TypeElement type) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String modelName = type.getQualifiedName().toString();
+        String localName = packageName.isEmpty() ? modelName : modelName.substring(packageName.length() + 1);
+        String accessorName = localName.replace('.', '_') + SUFFIX;
+        String castName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        // Every public field, including inherited ones. This matches `Class.getFields()`
+        List<VariableElement> fields = new ArrayList<>();
+        List<String> seen = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() != ElementKind.FIELD) continue;
+            if (!member.getModifiers().contains(Modifier.PUBLIC)) continue;
+            String name = member.getSimpleName().toString();
+            if (seen.contains(name)) continue;
+            seen.add(name);
+            fields.add((VariableElement) member);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("/** Generated from ").append(localName).append(" by the template model processor. Do not edit. */\n");
+        sb.append("@SuppressWarnings(\"all\")\n");
+        sb.append("public final class ").append(accessorName).append(" implements ").append(TEMPLATE_PACKAGE).append(".ModelAccessor {\n");
+
+        sb.append("    private static final String[] FIELDS = {");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('"').append(fields.get(i).getSimpleName()).append('"');
+        }
+        sb.append("};\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public Class<?> modelClass() {\n");
+        sb.append("        return ").append(castName).append(".class;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public String[] fieldNames() {\n");
+        sb.append("        return FIELDS.clone();\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public Object read(Object model, String name) {\n");
+        sb.append("        ").append(castName).append(" target = (").append(castName).append(") model;\n");
+        sb.append("        switch (name) {\n");
+        for (VariableElement field : fields) {
+            String name = field.getSimpleName().toString();
+            String owner = field.getModifiers().contains(Modifier.STATIC) ? castName : "target";
+            sb.append("            case \"").append(name).append("\": return ").append(owner).append('.').append(name).append(";\n");
+        }
+        sb.append("            default: return MISSING;\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        String qualifiedAccessor = packageName.isEmpty() ? accessorName : packageName + "." + accessorName;
+        if (write(qualifiedAccessor, sb.toString(), type)) generated.put(qualifiedAccessor, type);
+    }
+
+    private void writeRegistry() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(TEMPLATE_PACKAGE).append(";\n\n");
+        sb.append("/** Generated by the template model processor. Do not edit. */\n");
+        sb.append("@SuppressWarnings(\"all\")\n");
+        sb.append("public final class ").append(REGISTRY).append(" {\n");
+        sb.append("    /** Add an accessor for every @TemplateModel class, keyed by model class */\n");
+        sb.append("    public static void RegisterAll(java.util.Map<Class<?>, ModelAccessor> accessors) {\n");
+        for (String accessor : generated.keySet()) {
+            sb.append("        add(accessors, new ").append(accessor).append("());\n");
+        }
+        sb.append("    }\n\n");
+        sb.append("    private static void add(java.util.Map<Class<?>, ModelAccessor> accessors, ModelAccessor accessor) {\n");
+        sb.append("        accessors.put(accessor.modelClass(), accessor);\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        write(TEMPLATE_PACKAGE + "." + REGISTRY, sb.toString(), generated.values().toArray(new Element[0]));
+        registryWritten = true;
+        generated.clear();
+    }
+
+    private boolean write(String className, String source, Element... origins) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(className, origins);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+            return true;
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + className + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}